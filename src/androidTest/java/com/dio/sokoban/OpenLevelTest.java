@@ -0,0 +1,90 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Checks that moves on a level which isn't closed by walls stop at the
+ * edges of the board, rather than wrapping off the end of a row onto the
+ * next one.
+ */
+public class OpenLevelTest extends TestCase
+{
+    /**
+     * A level whose player stands at the end of a row. A step right would
+     * wrap onto the start of the next row.
+     */
+    private final static String WALK_LEVEL = "######\n#.$  @\n  ####\n";
+
+    /**
+     * A level whose box stands at the end of a row, with the player beside
+     * it. A push right would wrap the box onto the next row.
+     */
+    private final static String PUSH_LEVEL = "  @$\n.   \n";
+
+    public void testStepStopsAtRowEnd() throws IOException
+    {
+        Board board = read(WALK_LEVEL);
+        int player = board.getPlayerPos();
+        assertEquals(Move.STEP_ILLEGAL, board.step(Move.DIR_RIGHT));
+        assertEquals(player, board.getPlayerPos());
+
+        board = read(PUSH_LEVEL);
+        player = board.getPlayerPos();
+        assertEquals(Move.STEP_ILLEGAL, board.step(Move.DIR_RIGHT));
+        assertEquals(player, board.getPlayerPos());
+    }
+
+    public void testReachabilityStopsAtRowEnd() throws IOException
+    {
+        Board board = read(WALK_LEVEL);
+        Reachability reachability = new Reachability();
+        reachability.compute(board);
+        // The start of the row below the player.
+        assertFalse(reachability.isReachable(2 * board.getBoardWidth()));
+
+        board = read(PUSH_LEVEL);
+        reachability.compute(board);
+        for (int i = 0; i < reachability.getPushCount(); i++)
+            assertTrue(reachability.getPushDir(i) != Move.DIR_RIGHT);
+    }
+
+    public void testPathFinderStopsAtRowEnd() throws IOException
+    {
+        Board board = read(WALK_LEVEL);
+        int[] walk = new int[board.getSquareCount()];
+        assertEquals(-1, new PathFinder().findWalk(board,
+            2 * board.getBoardWidth(), walk));
+    }
+
+    /**
+     * Helper method - read a level.
+     */
+    private static Board read(String level) throws IOException
+    {
+        Board board = new Board();
+        board.read(new ByteArrayInputStream(level.getBytes("US-ASCII")));
+        return board;
+    }
+}
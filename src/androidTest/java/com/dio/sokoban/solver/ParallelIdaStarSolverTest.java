@@ -0,0 +1,65 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import android.test.AndroidTestCase;
+
+import com.dio.sokoban.Board;
+
+/**
+ * Checks that ParallelIdaStarSolver finds solutions with as few pushes as
+ * IdaStarSolver. Macro moves are off, so both find the fewest possible.
+ */
+public class ParallelIdaStarSolverTest extends AndroidTestCase
+{
+    /**
+     * Levels which both solvers solve in well under a second.
+     */
+    private final static int[] LEVELS = { 1, 2, 8, 21 };
+
+    public void testSamePushCount() throws Exception
+    {
+        for (int i = 0; i < LEVELS.length; i++)
+        {
+            Board board = new Board();
+            board.read(LEVELS[i], getContext().getAssets());
+
+            Solution sequential = createSolver(new IdaStarSolver()).solve(
+                board);
+            ParallelIdaStarSolver parallelSolver = new ParallelIdaStarSolver();
+            parallelSolver.setThreads(4);
+            Solution parallel = createSolver(parallelSolver).solve(board);
+
+            assertTrue("Level " + LEVELS[i], sequential.isSolved());
+            assertTrue("Level " + LEVELS[i], parallel.isSolved());
+            assertEquals("Level " + LEVELS[i], sequential.getPushCount(),
+                parallel.getPushCount());
+        }
+    }
+
+    /**
+     * Helper method - set up a solver for an exact search.
+     */
+    private static Solver createSolver(Solver solver)
+    {
+        solver.setMacroMoves(false);
+        return solver;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Checks the results of SolutionVerifier.
+ */
+public class SolutionVerifierTest extends TestCase
+{
+    /**
+     * A level solved by pushing its box right twice.
+     */
+    private final static String LEVEL = "######\n#@$ .#\n######\n";
+
+    public void testSolved() throws IOException
+    {
+        assertEquals(SolutionVerifier.SOLVED, verify("RR"));
+    }
+
+    public void testWrongCasePush() throws IOException
+    {
+        // A lower case letter must not push, and an upper case one must.
+        assertEquals(0, verify("rR"));
+        assertEquals(2, verify("RRL"));
+    }
+
+    public void testNotLurd() throws IOException
+    {
+        assertEquals(1, verify("R?"));
+    }
+
+    public void testNotSolved() throws IOException
+    {
+        assertEquals(SolutionVerifier.NOT_SOLVED, verify("R"));
+        assertEquals(SolutionVerifier.NOT_SOLVED, verify(""));
+    }
+
+    public void testReused() throws IOException
+    {
+        // A verifier starts every check from the level's start position.
+        Board board = read();
+        SolutionVerifier verifier = new SolutionVerifier();
+        assertEquals(SolutionVerifier.NOT_SOLVED, verifier.verify(board, "R"));
+        assertEquals(SolutionVerifier.SOLVED, verifier.verify(board, "RR"));
+    }
+
+    /**
+     * Helper method - check a solution of the level.
+     */
+    private static int verify(String lurd) throws IOException
+    {
+        return new SolutionVerifier().verify(read(), lurd);
+    }
+
+    /**
+     * Helper method - read the level.
+     */
+    private static Board read() throws IOException
+    {
+        Board board = new Board();
+        board.read(new ByteArrayInputStream(LEVEL.getBytes("US-ASCII")));
+        return board;
+    }
+}
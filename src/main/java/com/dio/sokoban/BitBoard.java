@@ -0,0 +1,263 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+/**
+ * A bitboard view of a Board: the walls, boxes, targets and inside squares,
+ * each as a bitset of square indices (see Bits). Questions about the whole
+ * board - is it solved, which boxes can be pushed in some direction, how many
+ * boxes are on targets - become a handful of word operations.
+ *
+ * The wall, target and inside sets never change after the level is read.
+ * The box set is kept up to date by the owning Board on every push.
+ */
+public class BitBoard
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The owning board's direction offsets, indexed by Move direction.
+     */
+    private final int[] m_dirOffsets = new int[Move.NUM_DIRS];
+
+    /**
+     * The wall squares.
+     */
+    private final long[] m_walls;
+
+    /**
+     * The target squares.
+     */
+    private final long[] m_targets;
+
+    /**
+     * The squares inside the board.
+     */
+    private final long[] m_inside;
+
+    /**
+     * The squares inside the board which aren't walls - the squares boxes
+     * and the player may stand on.
+     */
+    private final long[] m_floor;
+
+    /**
+     * The squares with boxes.
+     */
+    private final long[] m_boxes;
+
+    /**
+     * The squares whose neighbour in each direction is on the board, by
+     * Move direction. They mask out the squares a shift wraps from one row
+     * end to the other.
+     */
+    private final long[][] m_hasNeighbour;
+
+    /**
+     * Scratch sets for pushableBoxes.
+     */
+    private final long[] m_free;
+    private final long[] m_scratch;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create the bitboard of a board which was just read.
+     *
+     * @param board The board.
+     */
+    BitBoard(Board board)
+    {
+        int squareCount = board.getSquareCount();
+        m_walls = Bits.create(squareCount);
+        m_targets = Bits.create(squareCount);
+        m_boxes = Bits.create(squareCount);
+        m_inside = board.getInsideSquares();
+        m_floor = Bits.create(squareCount);
+        m_free = Bits.create(squareCount);
+        m_scratch = Bits.create(squareCount);
+        for (int pos = 0; pos < squareCount; pos++)
+        {
+            byte square = board.getSquare(pos);
+            if (BoardSquare.isWall(square))
+                Bits.set(m_walls, pos);
+            if (BoardSquare.isTarget(square))
+                Bits.set(m_targets, pos);
+            if (BoardSquare.hasBox(square))
+                Bits.set(m_boxes, pos);
+        }
+        Bits.andNot(m_inside, m_walls, m_floor);
+        m_hasNeighbour = new long[Move.NUM_DIRS][];
+        for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+        {
+            m_dirOffsets[dir] = board.getDirOffset(dir);
+            m_hasNeighbour[dir] = Bits.create(squareCount);
+            for (int pos = 0; pos < squareCount; pos++)
+            {
+                if (board.getNeighbour(pos, dir) >= 0)
+                    Bits.set(m_hasNeighbour[dir], pos);
+            }
+        }
+    }
+
+    /**
+     * Create a copy of another bitboard, for a forked board. The level sets
+     * are shared; the box set is copied.
+     */
+    BitBoard(BitBoard other)
+    {
+        m_walls = other.m_walls;
+        m_targets = other.m_targets;
+        m_inside = other.m_inside;
+        m_floor = other.m_floor;
+        m_hasNeighbour = other.m_hasNeighbour;
+        m_boxes = other.m_boxes.clone();
+        m_free = other.createSet();
+        m_scratch = other.createSet();
+        System.arraycopy(other.m_dirOffsets, 0, m_dirOffsets, 0,
+            m_dirOffsets.length);
+    }
+
+    /**
+     * Move a box from one square to another. Called by the owning board.
+     */
+    void moveBox(int src, int target)
+    {
+        Bits.clear(m_boxes, src);
+        Bits.set(m_boxes, target);
+    }
+
+    /**
+     * Get the wall squares. All of the returned sets should be treated as
+     * read-only, and shouldn't be changed.
+     */
+    public long[] getWalls()
+    {
+        return m_walls;
+    }
+
+    /**
+     * Get the target squares.
+     */
+    public long[] getTargets()
+    {
+        return m_targets;
+    }
+
+    /**
+     * Get the squares inside the board.
+     */
+    public long[] getInside()
+    {
+        return m_inside;
+    }
+
+    /**
+     * Get the inside squares which aren't walls.
+     */
+    public long[] getFloor()
+    {
+        return m_floor;
+    }
+
+    /**
+     * Get the squares with boxes.
+     */
+    public long[] getBoxes()
+    {
+        return m_boxes;
+    }
+
+    /**
+     * Create an empty bitset of the size of this board.
+     */
+    public long[] createSet()
+    {
+        return new long[m_walls.length];
+    }
+
+    /**
+     * Check whether every box is on a target - (boxes & ~targets) == 0.
+     */
+    public boolean isSolved()
+    {
+        return Bits.isSubsetOf(m_boxes, m_targets);
+    }
+
+    /**
+     * @return The number of boxes on the board.
+     */
+    public int getBoxCount()
+    {
+        return Bits.count(m_boxes);
+    }
+
+    /**
+     * @return The number of boxes which are on targets.
+     */
+    public int getBoxesOnTargets()
+    {
+        int count = 0;
+        for (int i = 0; i < m_boxes.length; i++)
+            count += Long.bitCount(m_boxes[i] & m_targets[i]);
+        return count;
+    }
+
+    /**
+     * Mark the squares whose neighbour in the given direction is marked in
+     * src. Only inside squares are marked.
+     *
+     * @param src The source set.
+     * @param dir The direction (one of the Move direction constants).
+     * @param dst The destination set. Must not be src.
+     */
+    public void neighbours(long[] src, int dir, long[] dst)
+    {
+        Bits.shift(src, m_dirOffsets[dir], dst);
+        Bits.and(dst, m_inside, dst);
+        Bits.and(dst, m_hasNeighbour[dir], dst);
+    }
+
+    /**
+     * Mark the boxes which can be pushed in the given direction, ignoring the
+     * player's position: the square ahead of the box is free floor, and the
+     * square behind it - where the player has to stand - is free floor too.
+     *
+     * @param dir The push direction.
+     * @param dst The destination set.
+     */
+    public void pushableBoxes(int dir, long[] dst)
+    {
+        int offset = m_dirOffsets[dir];
+        Bits.andNot(m_floor, m_boxes, m_free);
+        // Boxes with free floor ahead...
+        Bits.shift(m_free, offset, dst);
+        Bits.and(dst, m_boxes, dst);
+        Bits.and(dst, m_hasNeighbour[dir], dst);
+        // ...and free floor behind.
+        Bits.shift(m_free, -offset, m_scratch);
+        Bits.and(dst, m_scratch, dst);
+        Bits.and(dst, m_hasNeighbour[Move.getOppositeDir(dir)], dst);
+    }
+}
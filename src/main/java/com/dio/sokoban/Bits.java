@@ -0,0 +1,181 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+/**
+ * Helpers for bitsets of board squares. A bitset is a long[] with one bit
+ * per square index (bit pos % 64 of word pos / 64), so whole rows of squares
+ * can be tested and combined a word at a time.
+ */
+public final class Bits
+{
+    /**
+     * No instances.
+     */
+    private Bits()
+    {
+    }
+
+    /**
+     * Create an empty bitset large enough for the given number of squares.
+     */
+    public static long[] create(int squareCount)
+    {
+        return new long[(squareCount + 63) >>> 6];
+    }
+
+    /**
+     * @return true if the given bit is set.
+     */
+    public static boolean get(long[] bits, int pos)
+    {
+        return (bits[pos >>> 6] & (1L << pos)) != 0;
+    }
+
+    /**
+     * Set the given bit.
+     */
+    public static void set(long[] bits, int pos)
+    {
+        bits[pos >>> 6] |= (1L << pos);
+    }
+
+    /**
+     * Clear the given bit.
+     */
+    public static void clear(long[] bits, int pos)
+    {
+        bits[pos >>> 6] &= ~(1L << pos);
+    }
+
+    /**
+     * @return The number of bits set.
+     */
+    public static int count(long[] bits)
+    {
+        int count = 0;
+        for (int i = 0; i < bits.length; i++)
+            count += Long.bitCount(bits[i]);
+        return count;
+    }
+
+    /**
+     * @return true if no bit is set.
+     */
+    public static boolean isEmpty(long[] bits)
+    {
+        for (int i = 0; i < bits.length; i++)
+        {
+            if (bits[i] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every bit set in a is also set in b - that is,
+     * (a & ~b) is empty.
+     */
+    public static boolean isSubsetOf(long[] a, long[] b)
+    {
+        for (int i = 0; i < a.length; i++)
+        {
+            if ((a[i] & ~b[i]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a and b have a bit in common.
+     */
+    public static boolean intersects(long[] a, long[] b)
+    {
+        for (int i = 0; i < a.length; i++)
+        {
+            if ((a[i] & b[i]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * dst = a & b. dst may be one of the sources.
+     */
+    public static void and(long[] a, long[] b, long[] dst)
+    {
+        for (int i = 0; i < dst.length; i++)
+            dst[i] = a[i] & b[i];
+    }
+
+    /**
+     * dst = a & ~b. dst may be one of the sources.
+     */
+    public static void andNot(long[] a, long[] b, long[] dst)
+    {
+        for (int i = 0; i < dst.length; i++)
+            dst[i] = a[i] & ~b[i];
+    }
+
+    /**
+     * dst = a | b. dst may be one of the sources.
+     */
+    public static void or(long[] a, long[] b, long[] dst)
+    {
+        for (int i = 0; i < dst.length; i++)
+            dst[i] = a[i] | b[i];
+    }
+
+    /**
+     * Shift a bitset, so that bit pos of dst is bit (pos + offset) of src.
+     * Bits shifted in from outside src are zero. With offset being a
+     * direction offset of the board, dst marks the squares whose neighbour in
+     * that direction is marked in src - except that a horizontal shift moves
+     * the first and last squares of each row into the neighbouring rows.
+     * Levels which aren't closed by walls have inside squares at the row
+     * ends, so callers mask the result with the squares whose neighbour is
+     * on the board (see BitBoard).
+     *
+     * @param src The source bitset.
+     * @param offset The shift, in squares.
+     * @param dst The destination bitset. Must not be src.
+     */
+    public static void shift(long[] src, int offset, long[] dst)
+    {
+        int words = dst.length;
+        int wordShift = offset >> 6;
+        int bitShift = offset & 63;
+        for (int i = 0; i < words; i++)
+        {
+            int from = i + wordShift;
+            long low = (from >= 0 && from < words) ? src[from] : 0;
+            if (bitShift == 0)
+            {
+                dst[i] = low;
+            }
+            else
+            {
+                long high = (from + 1 >= 0 && from + 1 < words) ?
+                    src[from + 1] : 0;
+                dst[i] = (low >>> bitShift) | (high << (64 - bitShift));
+            }
+        }
+    }
+}
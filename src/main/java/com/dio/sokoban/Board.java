@@ -24,11 +24,17 @@ import android.content.res.AssetManager;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Random;
 import java.util.Vector;
 
 /**
  * The Sokoban board.
  *
+ * The board squares are kept in one flat array of content bytes (see
+ * BoardSquare for the bit masks), in row-major order. A square's index is
+ * y * width + x, and moving one square in any direction is a fixed offset
+ * from that index.
+ *
  * @author Dedi Hirschfeld
  */
 public class Board
@@ -48,24 +54,46 @@ public class Board
      */
     private final static String LEVEL_FILE_POSTFIX = ".txt";
 
-    //
-    // Members.
-    //
+    /**
+     * The seed for the Zobrist hash keys. The keys are generated the same
+     * way for every board, so two boards read from the same level hash the
+     * same positions to the same values.
+     */
+    private final static long ZOBRIST_SEED = 0x50C0BA4L;
 
     /**
-     * The array of board squares.
+     * The maximal number of boxes the freeze check follows from a pushed
+     * box (see freezeState).
      */
-    private BoardSquare[][] m_boardSquares;
+    private final static int MAX_FREEZE_DEPTH = 8;
 
     /**
-     * The x-coordinate of the player piece.
+     * The results of freezeState: the box can still move, it's frozen with
+     * all the boxes that hold it on targets, or it's frozen with at least
+     * one of them off a target.
      */
-    private int m_playerX;
+    private final static int NOT_FROZEN = 0;
+    private final static int FROZEN = 1;
+    private final static int FROZEN_OFF_TARGET = 3;
 
     /**
-     * The y-coordinate of the player piece.
+     * The value of m_deadlockPushCount when the board isn't deadlocked.
      */
-    private int m_playerY;
+    private final static int NO_DEADLOCK = Integer.MAX_VALUE;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board square contents, row by row.
+     */
+    private byte[] m_squares;
+
+    /**
+     * The index of the square the player piece is on.
+     */
+    private int m_playerPos;
 
     /**
      * The board width.
@@ -77,16 +105,109 @@ public class Board
      */
     private int m_boardHeight;
 
+    /**
+     * The index offset of a single step in each direction, indexed by the
+     * Move direction constants.
+     */
+    private int[] m_dirOffsets;
+
+    /**
+     * The squares inside the board (see markInsideSquares), as a bitset.
+     */
+    private long[] m_insideSquares;
+
+    /**
+     * The dead squares (see markDeadSquares), as a bitset.
+     */
+    private long[] m_deadSquares;
+
+    /**
+     * The bitboard view of this board.
+     */
+    private BitBoard m_bitBoard;
+
+    /**
+     * The queue used by markInsideSquares, kept between levels.
+     */
+    private IntQueue m_fillQueue = new IntQueue(64);
+
     /**
      * The number of empty target squares, which should have boxes but don't.
      */
     private int m_unsolvedTargets;
 
+    /**
+     * The Zobrist key of a box on each square.
+     */
+    private long[] m_boxKeys;
+
+    /**
+     * The Zobrist key of the player on each square.
+     */
+    private long[] m_playerKeys;
+
+    /**
+     * The Zobrist hash of the current position - the XOR of the box keys of
+     * all boxed squares and the player key of the player's square.
+     */
+    private long m_stateHash;
+
+    /**
+     * The number of pushes done since the level was read, or the last
+     * restore(), less the pushes undone.
+     */
+    private int m_pushCount;
+
+    /**
+     * The push count at which the board became deadlocked, or NO_DEADLOCK.
+     */
+    private int m_deadlockPushCount = NO_DEADLOCK;
+
+    /**
+     * The boxes the freeze check currently treats as walls.
+     */
+    private final int[] m_freezeStack = new int[MAX_FREEZE_DEPTH];
+
+    /**
+     * The number of boxes on m_freezeStack.
+     */
+    private int m_freezeDepth;
+
 
     //
     // Operations.
     //
 
+    /**
+     * Create an empty board. Call read() to load a level into it.
+     */
+    public Board()
+    {
+    }
+
+    /**
+     * Create a copy of another board, for fork(). The level data, which never
+     * changes after the level is read, is shared with the other board; the
+     * square contents, the boxes and the player position are copied.
+     */
+    private Board(Board other)
+    {
+        m_squares = other.m_squares.clone();
+        m_playerPos = other.m_playerPos;
+        m_boardWidth = other.m_boardWidth;
+        m_boardHeight = other.m_boardHeight;
+        m_dirOffsets = other.m_dirOffsets;
+        m_unsolvedTargets = other.m_unsolvedTargets;
+        m_boxKeys = other.m_boxKeys;
+        m_playerKeys = other.m_playerKeys;
+        m_stateHash = other.m_stateHash;
+        m_pushCount = other.m_pushCount;
+        m_deadlockPushCount = other.m_deadlockPushCount;
+        m_insideSquares = other.m_insideSquares;
+        m_deadSquares = other.m_deadSquares;
+        m_bitBoard = new BitBoard(other.m_bitBoard);
+    }
+
     /**
      * Read The board from a level file.
      *
@@ -116,24 +237,21 @@ public class Board
     }
 
     /**
-     * Read The board from an input stream.
+     * Read The board from an input stream, in the level file format. This is
+     * for tools which read level files outside the application.
      *
-     * @param filename The filename to read from.
+     * @param inStream The stream to read from. It's not closed.
      * @throws java.io.IOException if something went wrong in reading the board.
      */
-    private void read(InputStream inStream) throws IOException
+    public void read(InputStream inStream) throws IOException
     {
-        int newPlayerX = -1;
-        int newPlayerY = -1;
-        Vector<Vector<BoardSquare>> newBoardVector =
-            new Vector<Vector<BoardSquare>>(20);
+        Vector<StringBuffer> lines = new Vector<StringBuffer>(20);
         int newBoardWidth = 0;
         int curChar;
 
-        m_unsolvedTargets= 0;
         do
         {
-            Vector<BoardSquare> lineContents = new Vector<BoardSquare>(20);
+            StringBuffer lineContents = new StringBuffer(20);
 
             // Process one line of data.
             while(true)
@@ -141,34 +259,89 @@ public class Board
                 curChar = inStream.read();
                 if (curChar == '\n' || curChar == -1)
                     break;
-                BoardSquare square = new BoardSquare((char)curChar);
-                if (square.isStartPoint())
+                lineContents.append((char)curChar);
+            }
+            if (lineContents.length() > 0)
+                lines.addElement(lineContents);
+            if (newBoardWidth < lineContents.length())
+                newBoardWidth = lineContents.length();
+        }
+        while (curChar != -1);
+
+        m_boardWidth = newBoardWidth;
+        m_boardHeight = lines.size();
+        m_squares = new byte[m_boardWidth * m_boardHeight];
+        m_playerPos = -1;
+        m_unsolvedTargets = 0;
+        for (int y = 0; y < m_boardHeight; y++)
+        {
+            StringBuffer line = lines.elementAt(y);
+            for (int x = 0; x < line.length(); x++)
+            {
+                byte square = BoardSquare.fromChar(line.charAt(x));
+                int pos = y * m_boardWidth + x;
+                if (BoardSquare.isStartPoint(square))
                 {
-                    newPlayerX = lineContents.size();
-                    newPlayerY = newBoardVector.size();
+                    m_playerPos = pos;
                 }
-                if (square.isTarget() && !square.hasBox())
+                if (BoardSquare.isTarget(square) &&
+                    !BoardSquare.hasBox(square))
                 {
                     m_unsolvedTargets++;
                 }
-                lineContents.addElement(square);
+                m_squares[pos] = square;
             }
-            if (lineContents.size() > 0)
-                newBoardVector.addElement(lineContents);
-            if (newBoardWidth < lineContents.size())
-                newBoardWidth = lineContents.size();
         }
-        while (curChar != -1);
 
-        m_boardSquares = boardFromVector(newBoardVector, newBoardWidth);
-        m_playerX = newPlayerX;
-        m_playerY = newPlayerY;
-        m_boardHeight = m_boardSquares.length;
-        m_boardWidth = newBoardWidth;
+        // Boards forked from this one share the level data, so every level
+        // gets new arrays rather than overwriting the old ones.
+        m_dirOffsets = new int[Move.NUM_DIRS];
+        for (int dir = 0; dir < m_dirOffsets.length; dir++)
+        {
+            m_dirOffsets[dir] = Move.getYDelta(dir) * m_boardWidth +
+                Move.getXDelta(dir);
+        }
+
+        initStateHash();
 
         // markInsideSquares needs a point inside the board to start it's
         // marking. it seems safe to assume that the player is inside the board.
-        markInsideSquares(m_playerX, m_playerY);
+        markInsideSquares(getPlayerX(), getPlayerY());
+        m_bitBoard = new BitBoard(this);
+        markDeadSquares();
+
+        m_pushCount = 0;
+        m_deadlockPushCount = NO_DEADLOCK;
+        for (int pos = 0; pos < m_squares.length; pos++)
+        {
+            if (BoardSquare.hasBox(m_squares[pos]) && isDeadlock(pos))
+            {
+                m_deadlockPushCount = 0;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Helper method: generate the Zobrist keys for the current board size,
+     * and compute the hash of the current position from scratch.
+     */
+    private void initStateHash()
+    {
+        int squareCount = m_squares.length;
+        Random random = new Random(ZOBRIST_SEED);
+        m_boxKeys = new long[squareCount];
+        m_playerKeys = new long[squareCount];
+        m_stateHash = 0;
+        for (int pos = 0; pos < squareCount; pos++)
+        {
+            m_boxKeys[pos] = random.nextLong();
+            m_playerKeys[pos] = random.nextLong();
+            if (BoardSquare.hasBox(m_squares[pos]))
+                m_stateHash ^= m_boxKeys[pos];
+        }
+        if (m_playerPos >= 0)
+            m_stateHash ^= m_playerKeys[m_playerPos];
     }
 
     /**
@@ -176,50 +349,128 @@ public class Board
      * a flood-fill algorithm. When called with a point inside the board, it
      * marks it, and all other connected points until walls are reached.
      *
-     * The algorithm used is a simple recursive fill - chosen for it's
-     * simplicity. The downside, though, is that a large board might cause a
-     * stack overflow. But it seems like current Android screens aren't big
-     * enough to display such large boards anyway.
+     * The fill works a row at a time (a scanline fill): each square taken from
+     * the queue is extended left and right to a full run of squares, which
+     * is marked, and the runs above and below it are queued by one square
+     * each. The queue is kept between levels, and nothing is recursive, so
+     * any board size is safe.
      *
      * @param initialX The initial point X coordinate
      * @param initialY The initial point Y coordinate
      */
     private void markInsideSquares(int initialX, int initialY)
     {
-        BoardSquare square = getSquare(initialX, initialY);
-        if (square == null || square.isInsideBoard() || square.isWall())
+        m_insideSquares = Bits.create(m_squares.length);
+        if (initialX < 0 || initialX >= m_boardWidth ||
+            initialY < 0 || initialY >= m_boardHeight)
             return;
 
-        square.setIsInsideBoard(true);
-        markInsideSquares(initialX - 1, initialY);
-        markInsideSquares(initialX + 1, initialY);
-        markInsideSquares(initialX, initialY - 1);
-        markInsideSquares(initialX, initialY + 1);
+        m_fillQueue.clear();
+        m_fillQueue.add(initialY * m_boardWidth + initialX);
+        while (!m_fillQueue.isEmpty())
+        {
+            int pos = m_fillQueue.remove();
+            if (!isOutsideFill(pos))
+                continue;
+
+            int rowStart = pos - pos % m_boardWidth;
+            int rowEnd = rowStart + m_boardWidth - 1;
+            int left = pos;
+            while (left > rowStart && isOutsideFill(left - 1))
+                left--;
+            int right = pos;
+            while (right < rowEnd && isOutsideFill(right + 1))
+                right++;
+
+            boolean aboveQueued = false;
+            boolean belowQueued = false;
+            for (int cur = left; cur <= right; cur++)
+            {
+                m_squares[cur] = BoardSquare.setIsInsideBoard(m_squares[cur],
+                    true);
+                Bits.set(m_insideSquares, cur);
+
+                // Queue one square of each run above and below this one.
+                int above = cur - m_boardWidth;
+                if (above >= 0 && isOutsideFill(above))
+                {
+                    if (!aboveQueued)
+                        m_fillQueue.add(above);
+                    aboveQueued = true;
+                }
+                else
+                {
+                    aboveQueued = false;
+                }
+
+                int below = cur + m_boardWidth;
+                if (below < m_squares.length && isOutsideFill(below))
+                {
+                    if (!belowQueued)
+                        m_fillQueue.add(below);
+                    belowQueued = true;
+                }
+                else
+                {
+                    belowQueued = false;
+                }
+            }
+        }
     }
 
     /**
-     * Helper method - create a board array from a vector of vectors of
-     * squares.
-     * @param boardVec The vector to read from.
-     * @param width The new board width.
-     * @return
+     * Helper method: mark the dead squares - the squares inside the board
+     * from which a box can't be pushed to any target, even with no other
+     * boxes in the way. A box pushed onto one of them makes the level
+     * unsolvable.
+     *
+     * The live squares are found by pulling a box away from all the targets
+     * at once: a box can be pulled from a square if the square behind it,
+     * and the one behind that for the player, are both floor. Every floor
+     * square never reached is dead. Each square is queued at most once, so
+     * this is linear in the board size.
      */
-    private BoardSquare[][] boardFromVector(Vector<Vector<BoardSquare>>boardVec,
-            int width)
+    private void markDeadSquares()
     {
-        BoardSquare[][] newBoard = new BoardSquare[boardVec.size()][width];
-        for (int curLine = 0; curLine < newBoard.length; curLine++)
+        long[] floor = m_bitBoard.getFloor();
+        long[] live = Bits.create(m_squares.length);
+        Bits.and(floor, m_bitBoard.getTargets(), live);
+
+        m_fillQueue.clear();
+        for (int pos = 0; pos < m_squares.length; pos++)
+        {
+            if (Bits.get(live, pos))
+                m_fillQueue.add(pos);
+        }
+        while (!m_fillQueue.isEmpty())
         {
-            Vector<BoardSquare> lineVector =
-                (Vector<BoardSquare>)boardVec.elementAt(curLine);
-            int squaresInLine = lineVector.size();
-            for (int curSquare = 0; curSquare < squaresInLine; curSquare++)
+            int pos = m_fillQueue.remove();
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
             {
-                newBoard[curLine][curSquare] =
-                    (BoardSquare)lineVector.elementAt(curSquare);
+                // A box comes here by a push from the square a step away,
+                // with the player a step beyond it.
+                int prev = getNeighbour(pos, dir);
+                int player = (prev < 0) ? -1 : getNeighbour(prev, dir);
+                if (player < 0 || !Bits.get(floor, prev) ||
+                    !Bits.get(floor, player) || Bits.get(live, prev))
+                    continue;
+                Bits.set(live, prev);
+                m_fillQueue.add(prev);
             }
         }
-        return newBoard;
+
+        m_deadSquares = Bits.create(m_squares.length);
+        Bits.andNot(floor, live, m_deadSquares);
+    }
+
+    /**
+     * Helper method for markInsideSquares - check whether a square should
+     * still be filled: it's not a wall, and it hasn't been marked yet.
+     */
+    private boolean isOutsideFill(int pos)
+    {
+        byte square = m_squares[pos];
+        return !BoardSquare.isWall(square) && !BoardSquare.isInsideBoard(square);
     }
 
     /**
@@ -233,11 +484,7 @@ public class Board
         {
             for (int j = 0; j < m_boardWidth; j++)
             {
-                BoardSquare square = m_boardSquares[i][j];
-                if (square != null)
-                {
-                    buffer.append(square.toChar());
-                }
+                buffer.append(BoardSquare.toChar(m_squares[i * m_boardWidth + j]));
             }
             if ( i < m_boardHeight - 1)
                 buffer.append('\n');
@@ -264,20 +511,117 @@ public class Board
     }
 
     /**
-     * Get board square at the given position. The returned square should
-     * be treated as read-only, and shouldn't be changed. The square might be
-     * undefined (if it was not defined in the original board data), in which
-     * case null is returned.
+     * Get the contents of the board square at the given position, as a byte
+     * to be read with the BoardSquare helpers. Squares outside the board (or
+     * not defined in the original board data) are empty.
      *
-     * @return the contents of the square, or null if the square is undefined.
+     * @return the contents of the square.
      */
-    public BoardSquare getSquare(int x, int y)
+    public byte getSquare(int x, int y)
     {
-        try {
-            return m_boardSquares[y][x];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return null;
-        }
+        if (x < 0 || x >= m_boardWidth || y < 0 || y >= m_boardHeight)
+            return 0;
+        return m_squares[y * m_boardWidth + x];
+    }
+
+    /**
+     * Get the contents of the board square at the given index.
+     *
+     * @param pos The square index (y * width + x).
+     * @return the contents of the square.
+     */
+    public byte getSquare(int pos)
+    {
+        return m_squares[pos];
+    }
+
+    /**
+     * Get the number of squares on the board (width * height).
+     */
+    public int getSquareCount()
+    {
+        return m_squares.length;
+    }
+
+    /**
+     * Check whether the square at the given index is inside the board - that
+     * is, reachable from the player's starting point without crossing walls.
+     */
+    public boolean isInsideBoard(int pos)
+    {
+        return Bits.get(m_insideSquares, pos);
+    }
+
+    /**
+     * Get the squares inside the board as a bitset (see Bits). The returned
+     * array should be treated as read-only, and shouldn't be changed. It is
+     * replaced when a new level is read.
+     *
+     * @return The inside squares bitset.
+     */
+    public long[] getInsideSquares()
+    {
+        return m_insideSquares;
+    }
+
+    /**
+     * Check whether the square at the given index is dead: a box on it can
+     * never reach a target, so pushing one there loses the level. Walls and
+     * squares outside the board aren't dead.
+     */
+    public boolean isDeadSquare(int pos)
+    {
+        return Bits.get(m_deadSquares, pos);
+    }
+
+    /**
+     * Get the dead squares (see isDeadSquare()) as a bitset. The returned
+     * array should be treated as read-only, and shouldn't be changed. It is
+     * replaced when a new level is read.
+     *
+     * @return The dead squares bitset.
+     */
+    public long[] getDeadSquares()
+    {
+        return m_deadSquares;
+    }
+
+    /**
+     * Get the bitboard view of this board. It is kept in sync with the board
+     * by every move, and replaced when a new level is read.
+     */
+    public BitBoard getBitBoard()
+    {
+        return m_bitBoard;
+    }
+
+    /**
+     * Get the index offset of a single step in the given direction.
+     *
+     * @param dir One of the Move direction constants.
+     */
+    public int getDirOffset(int dir)
+    {
+        return m_dirOffsets[dir];
+    }
+
+    /**
+     * Get the square a step away from another one. Code which looks at a
+     * square's neighbours should use this rather than getDirOffset(), since
+     * a level which isn't closed by walls reaches the edges of the board,
+     * and a step off the end of a row must not wrap onto the next row.
+     *
+     * @param pos The square to step from.
+     * @param dir One of the Move direction constants.
+     * @return The square, or -1 if the step leaves the board.
+     */
+    public int getNeighbour(int pos, int dir)
+    {
+        int x = pos % m_boardWidth + Move.getXDelta(dir);
+        if (x < 0 || x >= m_boardWidth)
+            return -1;
+        int target = pos + m_dirOffsets[dir];
+        return isOnBoard(target) ? target : -1;
     }
 
     /**
@@ -286,7 +630,7 @@ public class Board
      */
     public int getPlayerX()
     {
-        return m_playerX;
+        return m_playerPos % m_boardWidth;
     }
 
     /**
@@ -295,7 +639,16 @@ public class Board
      */
     public int getPlayerY()
     {
-        return m_playerY;
+        return m_playerPos / m_boardWidth;
+    }
+
+    /**
+     * Return the index of the square the player is on.
+     * @return The player's square index.
+     */
+    public int getPlayerPos()
+    {
+        return m_playerPos;
     }
 
     /**
@@ -305,65 +658,243 @@ public class Board
      */
     public boolean move(Move move)
     {
-        boolean moveOk = false;
-        int xDelta = move.getXDelta();
-        int yDelta = move.getYDelta();
+        int step = step(move.getDir());
+        if (step == Move.STEP_ILLEGAL)
+            return false;
+
+        move.setMoving(Move.isPush(step));
+        return true;
+    }
 
+    /**
+     * Try to move the player one square in the given direction, making sure
+     * the move is legal. This is the allocation-free version of move(): the
+     * result is a step code (see Move), which can be kept in a MoveJournal
+     * and later passed to undoStep().
+     *
+     * @param dir The direction to move in.
+     * @return The step code of the move, or Move.STEP_ILLEGAL if the move
+     * was illegal.
+     */
+    public int step(int dir)
+    {
         // First, let's figure out if the move is legal. The assumption
-        // is, the game area is closed on all sides with walls.
-        // Otherwise, the code bellow could throw an exception:
-        int targetX = m_playerX + xDelta;
-        int targetY = m_playerY + yDelta;
-        BoardSquare playerTargetSquare = getSquare(targetX, targetY);
-        BoardSquare newBoxSquare = null;
-        if (!playerTargetSquare.isWall())
+        // is, the game area is closed on all sides with walls. A level which
+        // isn't could still let the player reach the edge of the board, so
+        // stepping off it - off the top or bottom, or off the end of a row -
+        // is treated as hitting a wall.
+        int target = getNeighbour(m_playerPos, dir);
+        if (target < 0)
+            return Move.STEP_ILLEGAL;
+        byte playerTargetSquare = m_squares[target];
+        if (BoardSquare.isWall(playerTargetSquare))
+            return Move.STEP_ILLEGAL;
+
+        int step = dir;
+        if (BoardSquare.hasBox(playerTargetSquare))
         {
-            if (!playerTargetSquare.hasBox())
-            {
-                moveOk = true;
-            }
-            else // We're moving to a boxed position.
-            {
-                int newBoxX = targetX + xDelta;
-                int newBoxY = targetY + yDelta;
-                newBoxSquare = getSquare(newBoxX, newBoxY);
-                moveOk = !newBoxSquare.hasBox() && !newBoxSquare.isWall();
-            }
+            // We're moving to a boxed position.
+            int newBox = getNeighbour(target, dir);
+            if (newBox < 0)
+                return Move.STEP_ILLEGAL;
+            byte newBoxSquare = m_squares[newBox];
+            if (BoardSquare.hasBox(newBoxSquare) ||
+                BoardSquare.isWall(newBoxSquare))
+                return Move.STEP_ILLEGAL;
+
+            step |= Move.STEP_PUSH;
+            moveBox(target, newBox, false);
         }
 
         // Now do the actual move.
-        if (moveOk)
-        {
-            m_playerX = targetX;
-            m_playerY = targetY;
+        movePlayer(target);
+        return step;
+    }
 
-            if (newBoxSquare != null)
-            {
-                move.setMoving(true);
-                moveBox(playerTargetSquare, newBoxSquare);
-            }
+    /**
+     * Put the player on the given square, as if it walked there. This is for
+     * search code, which only cares about the pushes, and knows the square
+     * can be walked to; no checks are performed.
+     *
+     * @param pos The index of the square to put the player on.
+     */
+    public void placePlayer(int pos)
+    {
+        movePlayer(pos);
+    }
+
+    /**
+     * Apply a sequence of moves, stopping at the first illegal one. This is
+     * the batched version of step(), for walks and other multi-step moves:
+     * the caller gets one call (and can redraw once) for the whole sequence.
+     *
+     * @param dirs The move directions.
+     * @param start The index of the first direction to apply.
+     * @param count The number of directions to apply.
+     * @param journal If not null, the step code of every applied move is
+     * added to it.
+     * @return The number of moves applied. Less than count means the move
+     * after the last applied one was illegal.
+     */
+    public int applyMoves(int[] dirs, int start, int count, MoveJournal journal)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int step = step(dirs[start + i]);
+            if (step == Move.STEP_ILLEGAL)
+                return i;
+            if (journal != null)
+                journal.push(step);
         }
-        return moveOk;
+        return count;
+    }
+
+    /**
+     * Helper method - check that a square index is inside the board array.
+     */
+    private boolean isOnBoard(int pos)
+    {
+        return pos >= 0 && pos < m_squares.length;
     }
 
     /**
-     * Helper method - move the box from one square to another
-     * @param srcSquare - the original square.
-     * @param targetSquare - the target to move the box to.
+     * Helper method - move the player to another square.
+     * @param target - the index of the square to move the player to.
      */
-    private void moveBox(BoardSquare srcSquare, BoardSquare targetSquare)
+    private void movePlayer(int target)
     {
-        srcSquare.setBox(false);
-        targetSquare.setBox(true);
-        if (srcSquare.isTarget())
+        m_stateHash ^= m_playerKeys[m_playerPos] ^ m_playerKeys[target];
+        m_playerPos = target;
+    }
+
+    /**
+     * Helper method - move the box from one square to another, and keep the
+     * deadlock flag up to date: a push which leaves its box frozen makes the
+     * board deadlocked, and undoing that push clears it again.
+     * @param src - the index of the original square.
+     * @param target - the index of the square to move the box to.
+     * @param undo - true if the push is being undone.
+     */
+    private void moveBox(int src, int target, boolean undo)
+    {
+        byte srcSquare = m_squares[src];
+        byte targetSquare = m_squares[target];
+        m_squares[src] = BoardSquare.setBox(srcSquare, false);
+        m_squares[target] = BoardSquare.setBox(targetSquare, true);
+        m_stateHash ^= m_boxKeys[src] ^ m_boxKeys[target];
+        m_bitBoard.moveBox(src, target);
+        if (BoardSquare.isTarget(srcSquare))
         {
             m_unsolvedTargets++;
         }
 
-        if (targetSquare.isTarget())
+        if (BoardSquare.isTarget(targetSquare))
         {
             m_unsolvedTargets--;
         }
+
+        if (undo)
+        {
+            m_pushCount--;
+            if (m_deadlockPushCount > m_pushCount)
+                m_deadlockPushCount = NO_DEADLOCK;
+        }
+        else
+        {
+            m_pushCount++;
+            if (m_deadlockPushCount == NO_DEADLOCK && isDeadlock(target))
+                m_deadlockPushCount = m_pushCount;
+        }
+    }
+
+    /**
+     * Helper method - check whether the box on a square makes the board
+     * unsolvable: it's on a dead square, or it's frozen - it can't move
+     * along either axis, now or ever - and it or one of the boxes holding it
+     * isn't on a target.
+     */
+    private boolean isDeadlock(int pos)
+    {
+        if (Bits.get(m_deadSquares, pos))
+            return true;
+        m_freezeDepth = 0;
+        return freezeState(pos) == FROZEN_OFF_TARGET;
+    }
+
+    /**
+     * Helper method for isDeadlock - check whether a box is frozen. A box
+     * is frozen if it's blocked along both axes; along an axis, it's blocked
+     * by a wall on either side, by a frozen box on either side, or by dead
+     * squares on both sides. While a box's neighbours are checked, the box
+     * itself counts as a wall, which ends cycles. Following more than
+     * MAX_FREEZE_DEPTH boxes gives up, and reports the box as not frozen.
+     *
+     * @param pos The box square.
+     * @return NOT_FROZEN, FROZEN or FROZEN_OFF_TARGET.
+     */
+    private int freezeState(int pos)
+    {
+        if (m_freezeDepth == MAX_FREEZE_DEPTH)
+            return NOT_FROZEN;
+        m_freezeStack[m_freezeDepth++] = pos;
+
+        int state = NOT_FROZEN;
+        int horizontal = axisFreezeState(pos, Move.DIR_LEFT, Move.DIR_RIGHT);
+        if (horizontal != NOT_FROZEN)
+        {
+            int vertical = axisFreezeState(pos, Move.DIR_UP, Move.DIR_DOWN);
+            if (vertical != NOT_FROZEN)
+            {
+                state = horizontal | vertical |
+                    (BoardSquare.isTarget(m_squares[pos]) ?
+                        FROZEN : FROZEN_OFF_TARGET);
+            }
+        }
+
+        m_freezeDepth--;
+        return state;
+    }
+
+    /**
+     * Helper method for freezeState - check whether a box is blocked along
+     * one axis.
+     *
+     * @param pos The box square.
+     * @param beforeDir The direction of one side along the axis.
+     * @param afterDir The direction of the other side.
+     * @return NOT_FROZEN, or the freeze state the blocking adds.
+     */
+    private int axisFreezeState(int pos, int beforeDir, int afterDir)
+    {
+        int before = getNeighbour(pos, beforeDir);
+        int after = getNeighbour(pos, afterDir);
+        if (isFreezeWall(before) || isFreezeWall(after))
+            return FROZEN;
+        if (Bits.get(m_deadSquares, before) && Bits.get(m_deadSquares, after))
+            return FROZEN;
+
+        int state = NOT_FROZEN;
+        if (BoardSquare.hasBox(m_squares[before]))
+            state = freezeState(before);
+        if (state != FROZEN_OFF_TARGET && BoardSquare.hasBox(m_squares[after]))
+            state |= freezeState(after);
+        return state;
+    }
+
+    /**
+     * Helper method for axisFreezeState - check whether a square counts as a
+     * wall: it's off the board, a wall, or a box on the freeze stack.
+     */
+    private boolean isFreezeWall(int pos)
+    {
+        if (!isOnBoard(pos) || BoardSquare.isWall(m_squares[pos]))
+            return true;
+        for (int i = 0; i < m_freezeDepth; i++)
+        {
+            if (m_freezeStack[i] == pos)
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -375,20 +906,27 @@ public class Board
      */
     public void undoMove(Move move)
     {
-        int xDelta = move.getXDelta();
-        int yDelta = move.getYDelta();
+        undoStep(move.isMoving() ?
+            (move.getDir() | Move.STEP_PUSH) : move.getDir());
+    }
+
+    /**
+     * Undo a step returned by step(). Like undoMove(), this has to be called
+     * when the board is set up correctly, and no validity checks are
+     * performed.
+     *
+     * @param step The step code to undo.
+     */
+    public void undoStep(int step)
+    {
+        int offset = m_dirOffsets[Move.getStepDir(step)];
 
-        if (move.isMoving())
+        if (Move.isPush(step))
         {
-            int boxX = m_playerX + xDelta;
-            int boxY = m_playerY + yDelta;
-            BoardSquare boxSquarePostMove = getSquare(boxX, boxY);
-            BoardSquare boxSquarePreMove = getSquare(m_playerX, m_playerY);
-            moveBox(boxSquarePostMove, boxSquarePreMove);
+            moveBox(m_playerPos + offset, m_playerPos, true);
         }
 
-        m_playerX = m_playerX - xDelta;
-        m_playerY = m_playerY - yDelta;
+        movePlayer(m_playerPos - offset);
     }
 
     /**
@@ -398,4 +936,214 @@ public class Board
     {
         return m_unsolvedTargets == 0;
     }
+
+    /**
+     * Check whether the board is deadlocked: some push since the level was
+     * read left a box which can never reach a target (on a dead square, or
+     * frozen in place off a target). The flag is updated on every push, by
+     * a check of the pushed box and the boxes around it, and cleared when
+     * that push is undone. A board which isn't flagged may still be
+     * unsolvable.
+     */
+    public boolean isDeadlocked()
+    {
+        return m_deadlockPushCount != NO_DEADLOCK;
+    }
+
+    /**
+     * Take a snapshot of the current position (box positions and player
+     * position), to be restored later with restore().
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Restore a position taken with snapshot(), on this board or on one
+     * forked from it. Only the squares whose boxes differ are touched. The
+     * deadlock flag is restored as well, but undoing a push made before the
+     * snapshot clears it.
+     *
+     * @param snapshot The snapshot to restore.
+     * @throws IllegalArgumentException if the snapshot was taken on a
+     * different level.
+     */
+    public void restore(Snapshot snapshot)
+    {
+        if (snapshot.m_boxKeys != m_boxKeys)
+            throw new IllegalArgumentException(
+                "The snapshot was taken on a different level");
+
+        placeBoxes(snapshot.m_boxes);
+        m_playerPos = snapshot.m_playerPos;
+        m_unsolvedTargets = snapshot.m_unsolvedTargets;
+        m_stateHash = snapshot.m_stateHash;
+        m_pushCount = 0;
+        m_deadlockPushCount = snapshot.m_deadlocked ? 0 : NO_DEADLOCK;
+    }
+
+    /**
+     * Put the boxes on the given squares, wherever they are now. This is for
+     * search code which builds positions that weren't played - say, a
+     * search backwards from the solved position. The player stays where it
+     * is, and the deadlock flag is cleared; no checks are performed.
+     *
+     * @param boxes The squares to put boxes on, as a bitset (see Bits).
+     */
+    public void setBoxes(long[] boxes)
+    {
+        long[] oldBoxes = m_bitBoard.getBoxes().clone();
+        placeBoxes(boxes);
+        for (int word = 0; word < boxes.length; word++)
+        {
+            long diff = oldBoxes[word] ^ boxes[word];
+            while (diff != 0)
+            {
+                int pos = (word << 6) + Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                m_stateHash ^= m_boxKeys[pos];
+            }
+        }
+
+        long[] emptyTargets = m_bitBoard.createSet();
+        Bits.andNot(m_bitBoard.getTargets(), boxes, emptyTargets);
+        m_unsolvedTargets = Bits.count(emptyTargets);
+        m_pushCount = 0;
+        m_deadlockPushCount = NO_DEADLOCK;
+    }
+
+    /**
+     * Helper method for restore and setBoxes - move the boxes to the given
+     * squares. Only the squares whose boxes differ are touched.
+     */
+    private void placeBoxes(long[] newBoxes)
+    {
+        long[] boxes = m_bitBoard.getBoxes();
+        for (int word = 0; word < boxes.length; word++)
+        {
+            long diff = boxes[word] ^ newBoxes[word];
+            while (diff != 0)
+            {
+                int pos = (word << 6) + Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                boolean hasBox = Bits.get(newBoxes, pos);
+                m_squares[pos] = BoardSquare.setBox(m_squares[pos], hasBox);
+            }
+            boxes[word] = newBoxes[word];
+        }
+    }
+
+    /**
+     * Create an independent board in the current position. The level data
+     * (walls, targets, hash keys and so on) is shared, so forking is cheap,
+     * and moves on the fork don't affect this board - which makes it safe to
+     * hand the fork to a worker thread while this board keeps being played.
+     * Reading a new level into either board doesn't affect the other one.
+     *
+     * @return The forked board.
+     */
+    public Board fork()
+    {
+        return new Board(this);
+    }
+
+    /**
+     * Get a 64-bit hash of the current position (box positions and player
+     * position). The hash is kept up to date by every move and undo, so
+     * getting it costs nothing. Equal positions of the same level always
+     * have equal hashes; different positions collide with negligible
+     * probability.
+     *
+     * @return The Zobrist hash of the current position.
+     */
+    public long stateHash()
+    {
+        return m_stateHash;
+    }
+
+    /**
+     * Get the hash the current position would have with the player on
+     * another square. Searches which treat all the squares the player can
+     * walk to as one position use it with the normalized player square (see
+     * StateKey).
+     *
+     * @param playerPos The square of the player.
+     * @return The Zobrist hash of the boxes, with the player on playerPos.
+     */
+    public long stateHash(int playerPos)
+    {
+        return m_stateHash ^ m_playerKeys[m_playerPos] ^
+            m_playerKeys[playerPos];
+    }
+
+    /**
+     * A saved board position: the boxes and the player position, as taken
+     * by Board.snapshot(). Snapshots are immutable, and can be shared between
+     * threads.
+     */
+    public static class Snapshot
+    {
+        /**
+         * The hash keys of the board the snapshot was taken on, identifying
+         * its level.
+         */
+        private final long[] m_boxKeys;
+
+        /**
+         * The squares with boxes.
+         */
+        private final long[] m_boxes;
+
+        /**
+         * The index of the player's square.
+         */
+        private final int m_playerPos;
+
+        /**
+         * The number of unsolved targets.
+         */
+        private final int m_unsolvedTargets;
+
+        /**
+         * The position's hash.
+         */
+        private final long m_stateHash;
+
+        /**
+         * Whether the position is deadlocked.
+         */
+        private final boolean m_deadlocked;
+
+        /**
+         * Take a snapshot of the given board.
+         */
+        private Snapshot(Board board)
+        {
+            m_boxKeys = board.m_boxKeys;
+            m_boxes = board.m_bitBoard.getBoxes().clone();
+            m_playerPos = board.m_playerPos;
+            m_unsolvedTargets = board.m_unsolvedTargets;
+            m_stateHash = board.m_stateHash;
+            m_deadlocked = board.isDeadlocked();
+        }
+
+        /**
+         * @return The index of the player's square.
+         */
+        public int getPlayerPos()
+        {
+            return m_playerPos;
+        }
+
+        /**
+         * @return The hash of the saved position (see Board.stateHash()).
+         */
+        public long stateHash()
+        {
+            return m_stateHash;
+        }
+    }
 }
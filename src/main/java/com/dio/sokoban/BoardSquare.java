@@ -25,6 +25,10 @@ package com.dio.sokoban;
  * Because the square is read from a text file, each square is constructed
  * based on an encoded character.
  *
+ * Squares are not objects of their own: the board keeps one content byte per
+ * square, and this class holds the bit masks for that byte together with
+ * static helpers for reading and changing them.
+ *
  * Encoded char meaning:</br>
  *
  * #     - Wall</br>
@@ -37,7 +41,7 @@ package com.dio.sokoban;
  *
  * @author Dedi Hirschfeld
  */
-public class BoardSquare
+public final class BoardSquare
 {
     //
     // Bit masks for square contents. Not all combinations are legal,
@@ -48,28 +52,34 @@ public class BoardSquare
      * Mask for a wall in this square. If true, no other bit can be
      * turned on.
      */
-    private final static byte IS_WALL = 0x01;
+    final static byte IS_WALL = 0x01;
 
     /**
      * Mask for a box on this square.
      */
-    private final static byte HAS_BOX = 0x02;
+    final static byte HAS_BOX = 0x02;
 
     /**
      * Mask for a target square.
      */
-    private final static byte IS_TARGET = 0x04;
+    final static byte IS_TARGET = 0x04;
 
     /**
      * Mask for player starting point. At some point, we can get rid of this,
      * since the board square doesn't actually do anything with it but read it.
      */
-    private final static byte IS_START_POINT = 0x08;
+    final static byte IS_START_POINT = 0x08;
 
     /**
      *  Mask for the 'isInsideBoard' flag.
      */
-    private final static byte IS_INSIDE_BOARD = 0x10;
+    final static byte IS_INSIDE_BOARD = 0x10;
+
+    /**
+     * The bits which make up the encoded char of a square.
+     */
+    private final static byte ENCODED_BITS =
+        IS_WALL | HAS_BOX | IS_TARGET | IS_START_POINT;
 
     /**
      * A string of known characters, each in a position representing it's
@@ -78,59 +88,43 @@ public class BoardSquare
     private final static String ENCODED_CHARS = " #$ . * @   +";
 
 
-    //
-    // Members.
-    //
-
-    private byte m_squareContents;
-
     //
     // Operations.
     //
 
     /**
-     * Create a board square, by reading it from an encoded char. See above in
-     * the class documentation for the encoding for the board square.
-     *
-     * @param encodedContents The encoded contents.
+     * No instances - all operations work on content bytes.
      */
-    public BoardSquare(char encodedContents)
+    private BoardSquare()
     {
-        m_squareContents = contentByteFromChar(encodedContents);
-
     }
 
     /**
      * @return true if the given square is a walll square.
      */
-    public boolean isWall()
+    public static boolean isWall(byte contents)
     {
-        return (m_squareContents & IS_WALL) != 0;
+        return (contents & IS_WALL) != 0;
     }
 
     /**
      * @return true if the given square has a box on it.
      */
-    public boolean hasBox()
+    public static boolean hasBox(byte contents)
     {
-        return (m_squareContents & HAS_BOX) != 0;
+        return (contents & HAS_BOX) != 0;
     }
 
     /**
-     * Put or remove a box from this square.
+     * Put or remove a box from a square.
      *
+     * @param contents The square contents.
      * @param isThere. True to put a box, false to remove it.
+     * @return The new square contents.
      */
-    public void setBox(boolean isThere)
+    public static byte setBox(byte contents, boolean isThere)
     {
-        if (isThere)
-        {
-            m_squareContents |= HAS_BOX;
-        }
-        else
-        {
-            m_squareContents &= (~HAS_BOX);
-        }
+        return (byte)(isThere ? (contents | HAS_BOX) : (contents & ~HAS_BOX));
     }
 
     /**
@@ -138,50 +132,46 @@ public class BoardSquare
      *  that are inside the game board (that is, that are surounded by walls),
      *  and to false for all others.
      */
-    public boolean isInsideBoard()
+    public static boolean isInsideBoard(byte contents)
     {
-        return (m_squareContents & IS_INSIDE_BOARD) != 0;
+        return (contents & IS_INSIDE_BOARD) != 0;
     }
 
     /**
      * Set the 'isInsideBoard' flag.
+     *
+     * @return The new square contents.
      */
-    public void setIsInsideBoard(boolean isInside)
+    public static byte setIsInsideBoard(byte contents, boolean isInside)
     {
-        if (isInside)
-        {
-            m_squareContents |= IS_INSIDE_BOARD;
-        }
-        else
-        {
-            m_squareContents &= (~IS_INSIDE_BOARD);
-        }
-
+        return (byte)(isInside ? (contents | IS_INSIDE_BOARD) :
+            (contents & ~IS_INSIDE_BOARD));
     }
 
     /**
      * @return true if the given square is a target square.
      */
-    public boolean isTarget()
+    public static boolean isTarget(byte contents)
     {
-        return (m_squareContents & IS_TARGET) != 0;
+        return (contents & IS_TARGET) != 0;
     }
 
     /**
      * @return true if the given square is the player's starting point.
      */
-    public boolean isStartPoint()
+    public static boolean isStartPoint(byte contents)
     {
-        return (m_squareContents & IS_START_POINT) != 0;
+        return (contents & IS_START_POINT) != 0;
     }
 
     /**
-     * Create a content byte from the given encoded char.
+     * Create a content byte from the given encoded char. See above in
+     * the class documentation for the encoding for the board square.
      *
      * @param encoded The encoded char
      * @return A byte representing the square content.
      */
-    private byte contentByteFromChar(char encoded)
+    public static byte fromChar(char encoded)
     {
         int charIndex = ENCODED_CHARS.indexOf(encoded);
         return (charIndex > 0 ? (byte)charIndex : 0);
@@ -191,8 +181,12 @@ public class BoardSquare
      * Get the square string representation. This will return the one-char
      * encoded square.
      */
-    public char toChar()
+    public static char toChar(byte contents)
     {
-        return ENCODED_CHARS.charAt(m_squareContents);
+        // A box which was pushed onto the start point hides it.
+        int encoded = contents & ENCODED_BITS;
+        if (hasBox(contents))
+            encoded &= ~IS_START_POINT;
+        return ENCODED_CHARS.charAt(encoded);
     }
 }
@@ -0,0 +1,120 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+/**
+ * A first-in first-out queue of ints, used for board searches (flood fills,
+ * breadth-first searches and the like). The storage is kept between uses -
+ * call clear() before starting a new search - so a queue which has grown to
+ * the size of the board doesn't allocate again.
+ */
+public class IntQueue
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The queue storage.
+     */
+    private int[] m_items;
+
+    /**
+     * The index of the next item to be removed.
+     */
+    private int m_head;
+
+    /**
+     * The index at which the next item will be added.
+     */
+    private int m_tail;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a queue.
+     *
+     * @param capacity The initial capacity. The queue grows if needed.
+     */
+    public IntQueue(int capacity)
+    {
+        m_items = new int[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Add an item at the end of the queue.
+     */
+    public void add(int item)
+    {
+        if (m_tail == m_items.length)
+        {
+            // Reclaim the space of the items already removed, or grow.
+            int size = m_tail - m_head;
+            int[] items = m_items;
+            if (m_head < m_items.length / 2)
+                items = new int[m_items.length * 2];
+            System.arraycopy(m_items, m_head, items, 0, size);
+            m_items = items;
+            m_head = 0;
+            m_tail = size;
+        }
+        m_items[m_tail++] = item;
+    }
+
+    /**
+     * Remove the item at the head of the queue.
+     *
+     * @return The removed item.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public int remove()
+    {
+        if (m_head == m_tail)
+            throw new IllegalStateException("The queue is empty");
+        return m_items[m_head++];
+    }
+
+    /**
+     * @return true if the queue is empty.
+     */
+    public boolean isEmpty()
+    {
+        return m_head == m_tail;
+    }
+
+    /**
+     * @return The number of items in the queue.
+     */
+    public int size()
+    {
+        return m_tail - m_head;
+    }
+
+    /**
+     * Remove all items from the queue.
+     */
+    public void clear()
+    {
+        m_head = 0;
+        m_tail = 0;
+    }
+}
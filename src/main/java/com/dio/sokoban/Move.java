@@ -50,6 +50,38 @@ public class Move
      */
     public final static int DIR_RIGHT = 3;
 
+    /**
+     * The number of directions.
+     */
+    public final static int NUM_DIRS = 4;
+
+    //
+    // Constants - step codes. A step code packs a move direction (in the low
+    // two bits) with a flag telling whether the step pushed a box, so that
+    // a move can be stored and undone without a Move object.
+    //
+
+    /**
+     * The step code bit which is set when the step pushed a box.
+     */
+    public final static int STEP_PUSH = 0x04;
+
+    /**
+     * The mask for the direction bits of a step code.
+     */
+    public final static int STEP_DIR_MASK = 0x03;
+
+    /**
+     * The step code returned for an illegal move.
+     */
+    public final static int STEP_ILLEGAL = -1;
+
+    /**
+     * The LURD notation characters of the directions, in direction order.
+     * Lower case is a walk, upper case a push.
+     */
+    private final static String LURD_CHARS = "udlr";
+
     //
     // Members.
     //
@@ -81,9 +113,25 @@ public class Move
      * Get the change to the 'x' coordinate when performing this move.
      */
     public int getXDelta()
+    {
+        return getXDelta(m_dir);
+    }
+
+    /**
+     * Get the change to the 'y' coordinate when performing this move.
+     */
+    public int getYDelta()
+    {
+        return getYDelta(m_dir);
+    }
+
+    /**
+     * Get the change to the 'x' coordinate when moving in the given direction.
+     */
+    public static int getXDelta(int dir)
     {
         int xDelta;
-        switch (m_dir)
+        switch (dir)
         {
             case DIR_LEFT:
                 xDelta = -1;
@@ -99,12 +147,12 @@ public class Move
     }
 
     /**
-     * Get the change to the 'y' coordinate when performing this move.
+     * Get the change to the 'y' coordinate when moving in the given direction.
      */
-    public int getYDelta()
+    public static int getYDelta(int dir)
     {
         int yDelta;
-        switch (m_dir)
+        switch (dir)
         {
             case DIR_UP:
                 yDelta = -1;
@@ -119,6 +167,15 @@ public class Move
         return yDelta;
     }
 
+    /**
+     * Get the direction opposite to the given one. The direction constants
+     * come in opposite pairs, which differ in the low bit.
+     */
+    public static int getOppositeDir(int dir)
+    {
+        return dir ^ 1;
+    }
+
     /**
      * Get the move direction.
      * @return The move direction.
@@ -146,4 +203,45 @@ public class Move
     {
         m_isMoving = isMoving;
     }
+
+    /**
+     * Get the direction of a step code.
+     */
+    public static int getStepDir(int step)
+    {
+        return step & STEP_DIR_MASK;
+    }
+
+    /**
+     * Check whether a step code pushed a box.
+     */
+    public static boolean isPush(int step)
+    {
+        return (step & STEP_PUSH) != 0;
+    }
+
+    /**
+     * Get the LURD notation character of a step code: 'l', 'u', 'r' or 'd'
+     * for a walk, and the upper case letter for a push.
+     */
+    public static char toLurd(int step)
+    {
+        char lurdChar = LURD_CHARS.charAt(getStepDir(step));
+        return isPush(step) ? Character.toUpperCase(lurdChar) : lurdChar;
+    }
+
+    /**
+     * Get the step code of a LURD notation character. An upper case letter
+     * gives a step code with the STEP_PUSH flag.
+     *
+     * @return The step code, or STEP_ILLEGAL if the character is not a LURD
+     * character.
+     */
+    public static int fromLurd(char lurdChar)
+    {
+        int dir = LURD_CHARS.indexOf(Character.toLowerCase(lurdChar));
+        if (dir < 0)
+            return STEP_ILLEGAL;
+        return Character.isUpperCase(lurdChar) ? (dir | STEP_PUSH) : dir;
+    }
 }
@@ -0,0 +1,202 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+/**
+ * A compact journal of the steps done in a game. Each entry is a step code
+ * (see Move) packed into three bits - two for the direction and one for the
+ * 'pushed a box' flag - so that 21 steps fit in a single long. Adding and
+ * removing steps allocates nothing, except when the journal has to grow.
+ *
+ * Consecutive steps can be grouped into a macro (such as a walk to a tapped
+ * square), which is undone as a single unit - see getUndoStart().
+ *
+ * The journal is not synchronized; it's meant to be used by the thread that
+ * owns the board.
+ */
+public class MoveJournal
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of bits used for each step.
+     */
+    private final static int BITS_PER_STEP = 3;
+
+    /**
+     * The mask for a single step.
+     */
+    private final static long STEP_MASK = (1 << BITS_PER_STEP) - 1;
+
+    /**
+     * The number of steps packed into each long.
+     */
+    private final static int STEPS_PER_WORD = 64 / BITS_PER_STEP;
+
+    /**
+     * The initial capacity, in words.
+     */
+    private final static int INITIAL_WORDS = 16;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The packed steps.
+     */
+    private long[] m_words = new long[INITIAL_WORDS];
+
+    /**
+     * The number of steps in the journal.
+     */
+    private int m_size;
+
+    /**
+     * The macros, as pairs of (first step index, end step index) - the end
+     * being exclusive. Macros are kept in order, and never overlap.
+     */
+    private int[] m_macros = new int[16];
+
+    /**
+     * The number of ints used in m_macros (twice the number of macros).
+     */
+    private int m_macroInts;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Add a step at the end of the journal.
+     *
+     * @param step The step code to add. Must not be Move.STEP_ILLEGAL.
+     */
+    public void push(int step)
+    {
+        int word = m_size / STEPS_PER_WORD;
+        int shift = (m_size % STEPS_PER_WORD) * BITS_PER_STEP;
+        if (word == m_words.length)
+        {
+            long[] newWords = new long[m_words.length * 2];
+            System.arraycopy(m_words, 0, newWords, 0, m_words.length);
+            m_words = newWords;
+        }
+        m_words[word] = (m_words[word] & ~(STEP_MASK << shift)) |
+            ((step & STEP_MASK) << shift);
+        m_size++;
+    }
+
+    /**
+     * Remove the last step from the journal.
+     *
+     * @return The removed step code.
+     * @throws IllegalStateException if the journal is empty.
+     */
+    public int pop()
+    {
+        if (m_size == 0)
+            throw new IllegalStateException("The move journal is empty");
+        int step = get(m_size - 1);
+        m_size--;
+
+        // A macro which was partly undone is no longer a unit.
+        while (m_macroInts > 0 && m_macros[m_macroInts - 1] > m_size)
+            m_macroInts -= 2;
+        return step;
+    }
+
+    /**
+     * Get the step at the given index.
+     *
+     * @param index The step index, 0 being the first step done.
+     * @return The step code.
+     * @throws IndexOutOfBoundsException if there's no such step.
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= m_size)
+            throw new IndexOutOfBoundsException("Step " + index +
+                " of " + m_size);
+        int shift = (index % STEPS_PER_WORD) * BITS_PER_STEP;
+        return (int)((m_words[index / STEPS_PER_WORD] >>> shift) & STEP_MASK);
+    }
+
+    /**
+     * @return The number of steps in the journal.
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * @return true if there are no steps in the journal.
+     */
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+
+    /**
+     * Remove all steps. The storage is kept for reuse.
+     */
+    public void clear()
+    {
+        m_size = 0;
+        m_macroInts = 0;
+    }
+
+    /**
+     * Group the steps from the given index to the end of the journal into a
+     * macro, to be undone as one unit. Groups of fewer than two steps are
+     * ignored, since a single step is a unit anyway.
+     *
+     * @param start The index of the macro's first step.
+     */
+    public void endMacro(int start)
+    {
+        if (m_size - start < 2)
+            return;
+        if (m_macroInts == m_macros.length)
+        {
+            int[] macros = new int[m_macros.length * 2];
+            System.arraycopy(m_macros, 0, macros, 0, m_macroInts);
+            m_macros = macros;
+        }
+        m_macros[m_macroInts++] = start;
+        m_macros[m_macroInts++] = m_size;
+    }
+
+    /**
+     * Get the index of the first step of the last undo unit: the start of
+     * the last macro if it ends the journal, or else the last step.
+     *
+     * @return The index to undo steps down to, or 0 if the journal is empty.
+     */
+    public int getUndoStart()
+    {
+        if (m_macroInts > 0 && m_macros[m_macroInts - 1] == m_size)
+            return m_macros[m_macroInts - 2];
+        return Math.max(m_size - 1, 0);
+    }
+}
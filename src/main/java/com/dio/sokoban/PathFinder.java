@@ -0,0 +1,240 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * Finds shortest player walks (without pushing boxes) using A*, with the
+ * Manhattan distance to the target as the heuristic. The search usually
+ * touches only the squares between the player and the target, unlike a
+ * full Reachability computation.
+ *
+ * The buffers are kept between searches and squares are marked with a
+ * generation stamp, so a search allocates nothing once the buffers have grown
+ * to the board size. Not thread safe - use one per thread.
+ */
+public class PathFinder
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The generation stamp of each square which has a cost in this search.
+     */
+    private int[] m_stamp = new int[0];
+
+    /**
+     * The generation stamp of each square which was expanded in this
+     * search.
+     */
+    private int[] m_closed = new int[0];
+
+    /**
+     * The current generation.
+     */
+    private int m_generation;
+
+    /**
+     * The best known walking distance to each square.
+     */
+    private int[] m_cost = new int[0];
+
+    /**
+     * The direction of the last step of the best known walk to each square.
+     */
+    private byte[] m_fromDir = new byte[0];
+
+    /**
+     * The open list: a binary min-heap of (estimated total << 32 | square).
+     */
+    private long[] m_heap = new long[64];
+
+    /**
+     * The number of entries in the open list.
+     */
+    private int m_heapSize;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Find a shortest walk from the player to the given square.
+     *
+     * @param board The board.
+     * @param target The square to walk to.
+     * @param dirs The array to write the walk directions to. A walk is never
+     * longer than the number of squares on the board.
+     * @return The number of steps in the walk (0 if the player is already
+     * there), or -1 if the square can't be reached without pushing.
+     */
+    public int findWalk(Board board, int target, int[] dirs)
+    {
+        int squareCount = board.getSquareCount();
+        int start = board.getPlayerPos();
+        if (target < 0 || target >= squareCount || !isFree(board, target))
+            return -1;
+        if (target == start)
+            return 0;
+
+        nextGeneration(squareCount);
+        int width = board.getBoardWidth();
+        int targetX = target % width;
+        int targetY = target / width;
+
+        m_heapSize = 0;
+        m_stamp[start] = m_generation;
+        m_cost[start] = 0;
+        push(estimate(start, width, targetX, targetY), start);
+        while (m_heapSize > 0)
+        {
+            int pos = (int)pop();
+            if (m_closed[pos] == m_generation)
+                continue;
+            if (pos == target)
+                return writeWalk(board, target, dirs);
+            m_closed[pos] = m_generation;
+
+            int nextCost = m_cost[pos] + 1;
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int next = board.getNeighbour(pos, dir);
+                if (next < 0 || m_closed[next] == m_generation ||
+                    !isFree(board, next))
+                    continue;
+                if (m_stamp[next] == m_generation &&
+                    m_cost[next] <= nextCost)
+                    continue;
+                m_stamp[next] = m_generation;
+                m_cost[next] = nextCost;
+                m_fromDir[next] = (byte)dir;
+                push(nextCost + estimate(next, width, targetX, targetY), next);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method - check whether the player can stand on a square.
+     */
+    private static boolean isFree(Board board, int pos)
+    {
+        byte square = board.getSquare(pos);
+        return !BoardSquare.isWall(square) && !BoardSquare.hasBox(square);
+    }
+
+    /**
+     * Helper method - the Manhattan distance from a square to the target.
+     */
+    private static int estimate(int pos, int width, int targetX, int targetY)
+    {
+        return Math.abs(pos % width - targetX) + Math.abs(pos / width - targetY);
+    }
+
+    /**
+     * Helper method - write the walk to the target, once it was reached.
+     */
+    private int writeWalk(Board board, int target, int[] dirs)
+    {
+        int length = m_cost[target];
+        int pos = target;
+        for (int i = length - 1; i >= 0; i--)
+        {
+            int dir = m_fromDir[pos];
+            dirs[i] = dir;
+            pos -= board.getDirOffset(dir);
+        }
+        return length;
+    }
+
+    /**
+     * Helper method - start a new generation, making sure the buffers are
+     * large enough for the board.
+     */
+    private void nextGeneration(int squareCount)
+    {
+        if (m_stamp.length < squareCount)
+        {
+            m_stamp = new int[squareCount];
+            m_closed = new int[squareCount];
+            m_cost = new int[squareCount];
+            m_fromDir = new byte[squareCount];
+            m_generation = 0;
+        }
+        if (++m_generation == 0)
+        {
+            Arrays.fill(m_stamp, 0);
+            Arrays.fill(m_closed, 0);
+            m_generation = 1;
+        }
+    }
+
+    /**
+     * Helper method - add a square to the open list.
+     */
+    private void push(int estimate, int pos)
+    {
+        if (m_heapSize == m_heap.length)
+        {
+            long[] heap = new long[m_heap.length * 2];
+            System.arraycopy(m_heap, 0, heap, 0, m_heapSize);
+            m_heap = heap;
+        }
+        long entry = ((long)estimate << 32) | pos;
+        int index = m_heapSize++;
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (m_heap[parent] <= entry)
+                break;
+            m_heap[index] = m_heap[parent];
+            index = parent;
+        }
+        m_heap[index] = entry;
+    }
+
+    /**
+     * Helper method - remove the open list entry with the lowest estimate.
+     *
+     * @return The entry's square.
+     */
+    private long pop()
+    {
+        long top = m_heap[0];
+        long last = m_heap[--m_heapSize];
+        int index = 0;
+        while (true)
+        {
+            int child = index * 2 + 1;
+            if (child >= m_heapSize)
+                break;
+            if (child + 1 < m_heapSize && m_heap[child + 1] < m_heap[child])
+                child++;
+            if (last <= m_heap[child])
+                break;
+            m_heap[index] = m_heap[child];
+            index = child;
+        }
+        m_heap[index] = last;
+        return top & 0xFFFFFFFFL;
+    }
+}
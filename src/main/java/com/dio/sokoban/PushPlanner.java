@@ -0,0 +1,317 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * Plans moving a single box to a given square with the fewest pushes,
+ * including the player's walks between pushes. The other boxes stay where
+ * they are.
+ *
+ * The search is a breadth-first search over (box square, player side)
+ * states, where the side is the direction the player can push the box in.
+ * All sides the player can walk between form one group, found by a small
+ * player fill around the box, so each group is expanded once. The search is
+ * bounded by a state budget, and all buffers are kept between plans - a plan
+ * allocates nothing once they have grown to the board size. Not thread safe
+ * - use one per thread.
+ */
+public class PushPlanner
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default maximal number of states to expand per plan.
+     */
+    public final static int DEFAULT_STATE_BUDGET = 40000;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The maximal number of states to expand per plan.
+     */
+    private int m_stateBudget = DEFAULT_STATE_BUDGET;
+
+    /**
+     * The generation stamp of each visited state (box square * 4 + side).
+     */
+    private int[] m_stateStamp = new int[0];
+
+    /**
+     * The parent of each visited state, or -1 for start states.
+     */
+    private int[] m_parent = new int[0];
+
+    /**
+     * The generation stamp of each square reached by the player fill.
+     */
+    private int[] m_fillStamp = new int[0];
+
+    /**
+     * The current generation of m_stateStamp.
+     */
+    private int m_generation;
+
+    /**
+     * The current generation of m_fillStamp.
+     */
+    private int m_fillGeneration;
+
+    /**
+     * The state queue.
+     */
+    private IntQueue m_states = new IntQueue(64);
+
+    /**
+     * The player fill queue.
+     */
+    private IntQueue m_fill = new IntQueue(64);
+
+    /**
+     * The path finder for the walks between pushes.
+     */
+    private PathFinder m_pathFinder = new PathFinder();
+
+    /**
+     * The directions of a walk between pushes.
+     */
+    private int[] m_walk = new int[0];
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Set the maximal number of states to expand per plan. A plan which
+     * needs more fails.
+     */
+    public void setStateBudget(int stateBudget)
+    {
+        m_stateBudget = stateBudget;
+    }
+
+    /**
+     * Plan the pushes which move a box to a target square.
+     *
+     * @param board The board, in the current position.
+     * @param box The square of the box to move.
+     * @param target The square to move the box to.
+     * @param pushDirs The array to write the push directions to. A plan may
+     * visit a square more than once, with the player on another side, but
+     * never visits a state twice - so it never has more pushes than
+     * Move.NUM_DIRS times the number of squares on the board.
+     * @return The number of pushes, or -1 if the box can't be moved there
+     * (or the state budget ran out, or the plan doesn't fit in pushDirs).
+     */
+    public int plan(Board board, int box, int target, int[] pushDirs)
+    {
+        int squareCount = board.getSquareCount();
+        if (box < 0 || box >= squareCount ||
+            !BoardSquare.hasBox(board.getSquare(box)))
+            return -1;
+        if (target == box)
+            return 0;
+        if (target < 0 || target >= squareCount ||
+            !isFree(board, box, box, target))
+            return -1;
+
+        nextGeneration(squareCount);
+        m_states.clear();
+
+        // The start states are the sides the player can walk to now.
+        fillSides(board, box, box, board.getPlayerPos(), -1);
+
+        int expanded = 0;
+        while (!m_states.isEmpty())
+        {
+            if (++expanded > m_stateBudget)
+                return -1;
+
+            int state = m_states.remove();
+            int curBox = state >>> 2;
+            int dir = state & 3;
+            int newBox = board.getNeighbour(curBox, dir);
+            if (!isFree(board, box, curBox, newBox))
+                continue;
+            if (newBox == target)
+                return writePushes(state, pushDirs);
+
+            // After the push the player stands on the box's old square.
+            fillSides(board, box, newBox, curBox, state);
+        }
+        return -1;
+    }
+
+    /**
+     * Apply a plan to the board: walk to each push, and push. All steps are
+     * added to the journal, as one macro.
+     *
+     * @param board The board, in the position the plan was made in.
+     * @param box The square of the box the plan moves.
+     * @param pushDirs The push directions, as returned by plan().
+     * @param pushCount The number of pushes.
+     * @param journal The journal to add the steps to, or null.
+     * @return true if the whole plan was applied.
+     */
+    public boolean apply(Board board, int box, int[] pushDirs, int pushCount,
+        MoveJournal journal)
+    {
+        int squareCount = board.getSquareCount();
+        if (m_walk.length < squareCount)
+            m_walk = new int[squareCount];
+
+        int start = (journal != null) ? journal.size() : 0;
+        boolean ok = true;
+        for (int i = 0; i < pushCount && ok; i++)
+        {
+            int offset = board.getDirOffset(pushDirs[i]);
+            int walkLength = m_pathFinder.findWalk(board, box - offset, m_walk);
+            ok = walkLength >= 0 &&
+                board.applyMoves(m_walk, 0, walkLength, journal) == walkLength;
+            if (ok)
+            {
+                m_walk[0] = pushDirs[i];
+                ok = board.applyMoves(m_walk, 0, 1, journal) == 1;
+                box += offset;
+            }
+        }
+        if (journal != null)
+            journal.endMacro(start);
+        return ok;
+    }
+
+    /**
+     * Helper method - fill the player's area around a box at the given
+     * square, starting from the given player square, and queue every
+     * unvisited side of the box the player reaches.
+     *
+     * @param board The board.
+     * @param origBox The square the planned box started on, which is free.
+     * @param box The square the planned box is on now.
+     * @param player The player's square.
+     * @param parent The state the sides are reached from, or -1.
+     */
+    private void fillSides(Board board, int origBox, int box, int player,
+        int parent)
+    {
+        if (++m_fillGeneration == 0)
+        {
+            Arrays.fill(m_fillStamp, 0);
+            m_fillGeneration = 1;
+        }
+
+        // The fill stops early once every open side of the box was reached.
+        int sidesLeft = 0;
+        for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+        {
+            int side = board.getNeighbour(box, Move.getOppositeDir(dir));
+            if (isFree(board, origBox, box, side))
+                sidesLeft++;
+        }
+
+        m_fill.clear();
+        m_fill.add(player);
+        m_fillStamp[player] = m_fillGeneration;
+        while (!m_fill.isEmpty() && sidesLeft > 0)
+        {
+            int pos = m_fill.remove();
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                if (pos == board.getNeighbour(box, Move.getOppositeDir(dir)))
+                {
+                    sidesLeft--;
+                    int state = (box << 2) | dir;
+                    if (m_stateStamp[state] != m_generation)
+                    {
+                        m_stateStamp[state] = m_generation;
+                        m_parent[state] = parent;
+                        m_states.add(state);
+                    }
+                }
+
+                int next = board.getNeighbour(pos, dir);
+                if (next < 0 || m_fillStamp[next] == m_fillGeneration ||
+                    !isFree(board, origBox, box, next))
+                    continue;
+                m_fillStamp[next] = m_fillGeneration;
+                m_fill.add(next);
+            }
+        }
+    }
+
+    /**
+     * Helper method - check whether a square is free, with the planned box
+     * moved from its original square to the given one.
+     */
+    private static boolean isFree(Board board, int origBox, int box, int pos)
+    {
+        if (pos < 0 || pos >= board.getSquareCount() || pos == box ||
+            !board.isInsideBoard(pos))
+            return false;
+        byte square = board.getSquare(pos);
+        return !BoardSquare.isWall(square) &&
+            (!BoardSquare.hasBox(square) || pos == origBox);
+    }
+
+    /**
+     * Helper method - write the push directions leading to (and including)
+     * the push of the given state.
+     *
+     * @return The number of pushes, or -1 if they don't fit in pushDirs.
+     */
+    private int writePushes(int lastState, int[] pushDirs)
+    {
+        int count = 0;
+        for (int state = lastState; state != -1; state = m_parent[state])
+            count++;
+        if (count > pushDirs.length)
+            return -1;
+        int index = count;
+        for (int state = lastState; state != -1; state = m_parent[state])
+            pushDirs[--index] = state & 3;
+        return count;
+    }
+
+    /**
+     * Helper method - start a new generation, making sure the buffers are
+     * large enough for the board.
+     */
+    private void nextGeneration(int squareCount)
+    {
+        if (m_fillStamp.length < squareCount)
+        {
+            m_stateStamp = new int[squareCount * Move.NUM_DIRS];
+            m_parent = new int[squareCount * Move.NUM_DIRS];
+            m_fillStamp = new int[squareCount];
+            m_generation = 0;
+            m_fillGeneration = 0;
+        }
+        if (++m_generation == 0)
+        {
+            Arrays.fill(m_stateStamp, 0);
+            m_generation = 1;
+        }
+    }
+}
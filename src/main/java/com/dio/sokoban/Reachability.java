@@ -0,0 +1,329 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * Player reachability on a board: every square the player can walk to
+ * without pushing a box, the walking distance to it, and every push which
+ * is legal from there.
+ *
+ * One Reachability object is meant to be reused for many computations. Its
+ * buffers are sized to the largest board it has seen, and squares are marked
+ * visited with a generation stamp instead of clearing an array, so a
+ * computation allocates nothing. Like the board, it's not thread safe - use
+ * one per thread.
+ */
+public class Reachability
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The bits of a packed push which hold the direction.
+     */
+    private final static int PUSH_DIR_BITS = 2;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The generation stamp of each reached square.
+     */
+    private int[] m_stamp = new int[0];
+
+    /**
+     * The current generation.
+     */
+    private int m_generation;
+
+    /**
+     * The walking distance to each reached square.
+     */
+    private int[] m_distance = new int[0];
+
+    /**
+     * The direction of the last step on the shortest walk to each reached
+     * square.
+     */
+    private byte[] m_fromDir = new byte[0];
+
+    /**
+     * The search queue.
+     */
+    private IntQueue m_queue = new IntQueue(64);
+
+    /**
+     * The legal pushes, packed as (box square << 2) | direction.
+     */
+    private int[] m_pushes = new int[16];
+
+    /**
+     * The number of legal pushes.
+     */
+    private int m_pushCount;
+
+    /**
+     * The number of reached squares.
+     */
+    private int m_reachableCount;
+
+    /**
+     * The lowest reached square index.
+     */
+    private int m_topLeft;
+
+    /**
+     * The square the computation started from.
+     */
+    private int m_start;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Compute the reachability of the player in a board's current position.
+     *
+     * @param board The board.
+     */
+    public void compute(Board board)
+    {
+        compute(board, board.getPlayerPos());
+    }
+
+    /**
+     * Compute the reachability from the given square, with the board's
+     * current boxes. The start square itself is assumed free.
+     *
+     * @param board The board.
+     * @param start The square to start from.
+     */
+    public void compute(Board board, int start)
+    {
+        int squareCount = board.getSquareCount();
+        nextGeneration(squareCount);
+
+        m_start = start;
+        m_topLeft = start;
+        m_reachableCount = 1;
+        m_pushCount = 0;
+        m_stamp[start] = m_generation;
+        m_distance[start] = 0;
+        m_fromDir[start] = -1;
+        m_queue.clear();
+        m_queue.add(start);
+        while (!m_queue.isEmpty())
+        {
+            int pos = m_queue.remove();
+            int nextDistance = m_distance[pos] + 1;
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int next = board.getNeighbour(pos, dir);
+                if (next < 0 || m_stamp[next] == m_generation)
+                    continue;
+                byte square = board.getSquare(next);
+                if (BoardSquare.isWall(square))
+                    continue;
+                if (BoardSquare.hasBox(square))
+                {
+                    int boxTarget = board.getNeighbour(next, dir);
+                    if (boxTarget >= 0)
+                    {
+                        byte targetSquare = board.getSquare(boxTarget);
+                        if (!BoardSquare.isWall(targetSquare) &&
+                            !BoardSquare.hasBox(targetSquare))
+                            addPush(next, dir);
+                    }
+                    continue;
+                }
+                m_stamp[next] = m_generation;
+                m_distance[next] = nextDistance;
+                m_fromDir[next] = (byte)dir;
+                m_reachableCount++;
+                if (next < m_topLeft)
+                    m_topLeft = next;
+                m_queue.add(next);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given square was reached.
+     */
+    public boolean isReachable(int pos)
+    {
+        return pos >= 0 && pos < m_stamp.length &&
+            m_stamp[pos] == m_generation;
+    }
+
+    /**
+     * Get the walking distance to a reached square.
+     *
+     * @return The number of steps, or -1 if the square was not reached.
+     */
+    public int getDistance(int pos)
+    {
+        return isReachable(pos) ? m_distance[pos] : -1;
+    }
+
+    /**
+     * Get the direction of the last step of a shortest walk to a reached
+     * square. Following these directions backwards from a square gives the
+     * whole walk.
+     *
+     * @return The direction, or -1 for the start square.
+     */
+    public int getFromDir(int pos)
+    {
+        return m_fromDir[pos];
+    }
+
+    /**
+     * Write the directions of a shortest walk to a reached square.
+     *
+     * @param pos The target square.
+     * @param board The board the reachability was computed on.
+     * @param dirs The array to write the directions to, which should have
+     * room for getDistance(pos) entries.
+     * @return The number of steps written, or -1 if the square was not
+     * reached.
+     */
+    public int getWalk(int pos, Board board, int[] dirs)
+    {
+        int length = getDistance(pos);
+        if (length < 0)
+            return -1;
+        for (int i = length - 1; i >= 0; i--)
+        {
+            int dir = m_fromDir[pos];
+            dirs[i] = dir;
+            pos -= board.getDirOffset(dir);
+        }
+        return length;
+    }
+
+    /**
+     * @return The number of reached squares.
+     */
+    public int getReachableCount()
+    {
+        return m_reachableCount;
+    }
+
+    /**
+     * @return The lowest reached square index - the top-left square of the
+     * player's area.
+     */
+    public int getTopLeft()
+    {
+        return m_topLeft;
+    }
+
+    /**
+     * @return The square the computation started from.
+     */
+    public int getStart()
+    {
+        return m_start;
+    }
+
+    /**
+     * @return The number of legal pushes.
+     */
+    public int getPushCount()
+    {
+        return m_pushCount;
+    }
+
+    /**
+     * Get the square of the box moved by a legal push.
+     *
+     * @param index The push index, from 0 to getPushCount() - 1.
+     */
+    public int getPushBox(int index)
+    {
+        return m_pushes[index] >>> PUSH_DIR_BITS;
+    }
+
+    /**
+     * Get the direction of a legal push.
+     *
+     * @param index The push index, from 0 to getPushCount() - 1.
+     */
+    public int getPushDir(int index)
+    {
+        return m_pushes[index] & ((1 << PUSH_DIR_BITS) - 1);
+    }
+
+    /**
+     * Drop the legal pushes of all boxes but the given ones. Searches use
+     * this to cut down the pushes they try from a position.
+     *
+     * @param boxes The boxes whose pushes to keep, as a bitset (see Bits).
+     */
+    public void retainPushes(long[] boxes)
+    {
+        int count = 0;
+        for (int i = 0; i < m_pushCount; i++)
+        {
+            if (Bits.get(boxes, m_pushes[i] >>> PUSH_DIR_BITS))
+                m_pushes[count++] = m_pushes[i];
+        }
+        m_pushCount = count;
+    }
+
+    /**
+     * Helper method - start a new generation, making sure the buffers are
+     * large enough for the board.
+     */
+    private void nextGeneration(int squareCount)
+    {
+        if (m_stamp.length < squareCount)
+        {
+            m_stamp = new int[squareCount];
+            m_distance = new int[squareCount];
+            m_fromDir = new byte[squareCount];
+            m_generation = 0;
+        }
+        if (++m_generation == 0)
+        {
+            Arrays.fill(m_stamp, 0);
+            m_generation = 1;
+        }
+    }
+
+    /**
+     * Helper method - record a legal push.
+     */
+    private void addPush(int box, int dir)
+    {
+        if (m_pushCount == m_pushes.length)
+        {
+            int[] pushes = new int[m_pushes.length * 2];
+            System.arraycopy(m_pushes, 0, pushes, 0, m_pushCount);
+            m_pushes = pushes;
+        }
+        m_pushes[m_pushCount++] = (box << PUSH_DIR_BITS) | dir;
+    }
+}
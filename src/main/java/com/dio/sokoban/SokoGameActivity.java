@@ -35,6 +35,7 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -47,12 +48,21 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.dio.sokoban.solver.DeadlockPatterns;
+import com.dio.sokoban.solver.HintEngine;
+import com.dio.sokoban.solver.Solution;
+import com.dio.sokoban.solver.SolutionCache;
+import com.dio.sokoban.solver.SolutionOptimizer;
+import com.dio.sokoban.solver.SolverThreadFactory;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The Sokban game activity.
@@ -89,6 +99,23 @@ public class SokoGameActivity extends Activity
      */
     private static final int UNDO_DISABLED_TRANSPARENCY = 128;
 
+    /**
+     * The name of the deadlock pattern database file, in the files
+     * directory.
+     */
+    private final static String DEADLOCK_PATTERNS_FILE = "deadlocks.db";
+
+    /**
+     * The delay between saves of the deadlock pattern database, while the
+     * game is in the foreground, in milliseconds.
+     */
+    private final static int DEADLOCK_PATTERNS_SAVE_DELAY = 60 * 1000;
+
+    /**
+     * The delay between the moves of a solution replay, in milliseconds.
+     */
+    private final static int REPLAY_MOVE_DELAY = 150;
+
     //
     // Members.
     //
@@ -166,9 +193,121 @@ public class SokoGameActivity extends Activity
     private MenuItem m_undoMenuItem;
 
     /**
-     * The list of moves done in the game.
+     * The 'show solution' menu item.
+     */
+    private MenuItem m_solutionMenuItem;
+
+    /**
+     * The steps done in the game.
+     */
+    private MoveJournal m_moveJournal = new MoveJournal();
+
+    /**
+     * The path finder for tap-to-walk.
+     */
+    private PathFinder m_pathFinder = new PathFinder();
+
+    /**
+     * The directions of the current walk, reused between walks.
+     */
+    private int[] m_walkDirs = new int[0];
+
+    /**
+     * The push planner for dragging boxes.
+     */
+    private PushPlanner m_pushPlanner = new PushPlanner();
+
+    /**
+     * The push directions of the current box drag, reused between drags.
+     */
+    private int[] m_pushDirs = new int[0];
+
+    /**
+     * The deadlock pattern database, learned by the solvers.
+     */
+    private DeadlockPatterns m_deadlockPatterns;
+
+    /**
+     * Saves the deadlock pattern database, in the background.
+     */
+    private ExecutorService m_patternSaver =
+        Executors.newSingleThreadExecutor(new SolverThreadFactory());
+
+    /**
+     * Runs the periodic saves of the deadlock pattern database.
+     */
+    private Handler m_handler = new Handler();
+
+    /**
+     * Saves the deadlock pattern database in the background, and schedules
+     * the next save.
+     */
+    private Runnable m_savePatternsStep = new Runnable()
+    {
+        public void run()
+        {
+            submitPatternSave();
+            m_handler.postDelayed(this, DEADLOCK_PATTERNS_SAVE_DELAY);
+        }
+    };
+
+    /**
+     * The solutions of the bundled levels.
+     */
+    private SolutionCache m_solutionCache;
+
+    /**
+     * The moves of the solution being replayed, or null.
+     */
+    private int[] m_replayMoves;
+
+    /**
+     * The index of the next move of the replay.
+     */
+    private int m_replayIndex;
+
+    /**
+     * Makes the next move of the replay.
+     */
+    private Runnable m_replayStep = new Runnable()
+    {
+        public void run()
+        {
+            replayMove();
+        }
+    };
+
+    /**
+     * The hint engine.
      */
-    private Vector<Move> m_moveList = new Vector<Move>();
+    private HintEngine m_hintEngine = new HintEngine();
+
+    /**
+     * The hint shown, or null.
+     */
+    private HintEngine.Hint m_hint;
+
+    /**
+     * Whether a hint was asked for, and not reported yet.
+     */
+    private boolean m_hintPending;
+
+    /**
+     * The key of the position the hint is shown or asked for.
+     */
+    private long m_hintKey;
+
+    /**
+     * Optimizes the solutions the player plays, in the background.
+     */
+    private ExecutorService m_optimizer =
+        Executors.newSingleThreadExecutor(new SolverThreadFactory());
+
+    /**
+     * true if tapping a square walks the player to it, and dragging a box
+     * pushes it to where it was dropped.
+     */
+    private boolean m_tapToWalk;
 
     /**
      * The number of levels.
@@ -207,15 +346,30 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * We're going to pause. Write the level number, since we might be
-     * killed at any moment.
+     * We're in the foreground. Save the deadlock patterns the solvers learn
+     * now and then.
+     */
+    @Override
+    public void onResume()
+    {
+        super.onResume();
+        m_handler.postDelayed(m_savePatternsStep,
+            DEADLOCK_PATTERNS_SAVE_DELAY);
+    }
+
+    /**
+     * We're going to pause. Write the level number, and start saving the
+     * deadlock patterns, since we might be killed at any moment.
      */
     @Override
     public void onPause()
     {
         super.onPause();
+        stopReplay();
+        m_handler.removeCallbacks(m_savePatternsStep);
         // TODO: Save the entire state. And use a bundle to do it.
         writeCurrentLevelNumber();
+        submitPatternSave();
     }
 
 
@@ -261,9 +415,12 @@ public class SokoGameActivity extends Activity
             return false;
         }
         m_level = newLevel;
-        String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveList.size());
+        stopReplay();
+        clearHint();
+        m_hintEngine.setLevel(newLevel);
+        String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveJournal.size());
         m_statusView.setText(statusText);
-        m_moveList.removeAllElements();
+        m_moveJournal.clear();
         setUndoButtonsState();
         setLevelButtonsState();
         if (m_gameView != null)
@@ -291,19 +448,319 @@ public class SokoGameActivity extends Activity
 
     /**
      * Perform a game move.
-     * @param move The move to perform.
+     * @param dir The direction to move in (one of the Move direction
+     * constants).
      */
-    public void doMove(Move move)
+    public void doMove(int dir)
     {
-        boolean moveOk = m_board.move(move);
-        if (moveOk)
+        stopReplay();
+        boolean wasDeadlocked = m_board.isDeadlocked();
+        int step = m_board.step(dir);
+        if (step != Move.STEP_ILLEGAL)
         {
-            m_moveList.addElement(move);
+            m_moveJournal.push(step);
             setUndoButtonsState();
+            checkHint();
             m_gameView.invalidate();
         }
+        boolean pushed = step != Move.STEP_ILLEGAL && Move.isPush(step);
+        checkDeadlocked(wasDeadlocked, pushed ?
+            m_board.getPlayerPos() + m_board.getDirOffset(dir) : -1);
+        checkSolved();
+    }
+
+    /**
+     * Walk the player to the given square along a shortest path, as a single
+     * move (undone in one go). Squares the player can't reach without
+     * pushing a box are ignored.
+     *
+     * @param x The square column.
+     * @param y The square row.
+     */
+    public void walkTo(int x, int y)
+    {
+        stopReplay();
+        if (x < 0 || x >= m_board.getBoardWidth() ||
+            y < 0 || y >= m_board.getBoardHeight())
+            return;
+
+        int squareCount = m_board.getSquareCount();
+        if (m_walkDirs.length < squareCount)
+            m_walkDirs = new int[squareCount];
+        int target = y * m_board.getBoardWidth() + x;
+        int length = m_pathFinder.findWalk(m_board, target, m_walkDirs);
+        if (length <= 0)
+            return;
+
+        int start = m_moveJournal.size();
+        if (m_board.applyMoves(m_walkDirs, 0, length, m_moveJournal) < length)
+        {
+            // The board refused a step of the walk. Take back the steps
+            // made, so the tap does nothing rather than stop halfway.
+            while (m_moveJournal.size() > start)
+                m_board.undoStep(m_moveJournal.pop());
+            return;
+        }
+        m_moveJournal.endMacro(start);
+        setUndoButtonsState();
+        checkHint();
+        m_gameView.invalidate();
+    }
+
+    /**
+     * Push a box to the given square with as few pushes as possible,
+     * including the walks between pushes, as a single move (undone in one
+     * go). Nothing happens if there's no box on the source square, or it
+     * can't be pushed to the target.
+     *
+     * @param boxX The box column.
+     * @param boxY The box row.
+     * @param targetX The target column.
+     * @param targetY The target row.
+     */
+    public void pushBoxTo(int boxX, int boxY, int targetX, int targetY)
+    {
+        stopReplay();
+        int width = m_board.getBoardWidth();
+        int height = m_board.getBoardHeight();
+        if (boxX < 0 || boxX >= width || boxY < 0 || boxY >= height ||
+            targetX < 0 || targetX >= width || targetY < 0 || targetY >= height)
+            return;
+
+        int maxPushes = m_board.getSquareCount() * Move.NUM_DIRS;
+        if (m_pushDirs.length < maxPushes)
+            m_pushDirs = new int[maxPushes];
+        int box = boxY * width + boxX;
+        int pushCount = m_pushPlanner.plan(m_board, box,
+            targetY * width + targetX, m_pushDirs);
+        if (pushCount <= 0)
+            return;
+
+        boolean wasDeadlocked = m_board.isDeadlocked();
+        m_pushPlanner.apply(m_board, box, m_pushDirs, pushCount,
+            m_moveJournal);
+        setUndoButtonsState();
+        checkHint();
+        m_gameView.invalidate();
+        checkDeadlocked(wasDeadlocked, targetY * width + targetX);
+        checkSolved();
+    }
+
+    /**
+     * A drag gesture on the game view went from one square to another. If
+     * the drag started on a box, the box is pushed to where it was dropped.
+     * Otherwise, it's treated as a tap on the square where it ended.
+     *
+     * @param fromX The column the drag started at.
+     * @param fromY The row the drag started at.
+     * @param toX The column the drag ended at.
+     * @param toY The row the drag ended at.
+     */
+    public void onSquareDragged(int fromX, int fromY, int toX, int toY)
+    {
+        if (!m_tapToWalk)
+            return;
+        if (BoardSquare.hasBox(m_board.getSquare(fromX, fromY)))
+            pushBoxTo(fromX, fromY, toX, toY);
+        else
+            walkTo(toX, toY);
+    }
+
+    /**
+     * A square on the game view was tapped.
+     *
+     * @param x The square column.
+     * @param y The square row.
+     */
+    public void onSquareTapped(int x, int y)
+    {
+        if (m_tapToWalk)
+            walkTo(x, y);
+    }
+
+    /**
+     * Undo the last move done. A walk (or other multi-step move) is undone as
+     * a whole.
+     */
+    public void undoMove()
+    {
+        stopReplay();
+        if (!m_moveJournal.isEmpty())
+        {
+            int undoStart = m_moveJournal.getUndoStart();
+            while (m_moveJournal.size() > undoStart)
+                m_board.undoStep(m_moveJournal.pop());
+            setUndoButtonsState();
+            checkHint();
+            m_gameView.invalidate();
+        }
+    }
+
+    /**
+     * Replay the level's solution from the start, a move at a time. Any move
+     * of the player stops the replay where it is.
+     */
+    public void showSolution()
+    {
+        int[] moves = m_solutionCache.getMoves(m_level);
+        if (moves == null)
+        {
+            Toast.makeText(getApplicationContext(),
+                R.string.NO_SOLUTION_MESSAGE, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!setLevel(m_level))
+            return;
+        m_replayMoves = moves;
+        m_replayIndex = 0;
+        m_gameView.postDelayed(m_replayStep, REPLAY_MOVE_DELAY);
+    }
+
+    /**
+     * Make the next move of the replay. The level isn't marked as passed
+     * when the replay solves it.
+     */
+    private void replayMove()
+    {
+        if (m_replayMoves == null)
+            return;
+        int step = m_board.step(m_replayMoves[m_replayIndex++]);
+        if (step != Move.STEP_ILLEGAL)
+            m_moveJournal.push(step);
+        setUndoButtonsState();
+        m_gameView.invalidate();
+        if (step == Move.STEP_ILLEGAL ||
+            m_replayIndex == m_replayMoves.length)
+            m_replayMoves = null;
+        else
+            m_gameView.postDelayed(m_replayStep, REPLAY_MOVE_DELAY);
+    }
+
+    /**
+     * Stop the replay, if one is running.
+     */
+    private void stopReplay()
+    {
+        if (m_replayMoves != null)
+        {
+            m_replayMoves = null;
+            m_gameView.removeCallbacks(m_replayStep);
+        }
+    }
+
+    /**
+     * Ask for a hint for the current position. The search runs in the
+     * background; the hint is shown on the board when it's found, unless
+     * the player moved on in the meantime.
+     */
+    public void requestHint()
+    {
+        m_hint = null;
+        m_hintPending = true;
+        m_hintKey = m_hintEngine.getKey(m_board);
+        m_gameView.invalidate();
+        m_hintEngine.requestHint(m_board, new HintEngine.Listener()
+        {
+            public void hintReady(final HintEngine.Hint hint)
+            {
+                runOnUiThread(new Runnable()
+                {
+                    public void run()
+                    {
+                        showHint(hint);
+                    }
+                });
+            }
+        });
+        if (m_hintPending)
+        {
+            Toast.makeText(getApplicationContext(),
+                R.string.HINT_SEARCHING_MESSAGE, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Get the hint shown on the board.
+     *
+     * @return The hint, or null if there's none.
+     */
+    public HintEngine.Hint getHint()
+    {
+        return m_hint;
+    }
+
+    /**
+     * A hint was found - show it, if it's for the position on the board.
+     */
+    private void showHint(HintEngine.Hint hint)
+    {
+        if (!m_hintPending || hint.getKey() != m_hintKey)
+            return;
+        m_hintPending = false;
+        switch (hint.getStatus())
+        {
+          case HintEngine.Hint.FOUND:
+            m_hint = hint;
+            m_gameView.invalidate();
+            break;
+          case HintEngine.Hint.UNSOLVABLE:
+            Toast.makeText(getApplicationContext(),
+                R.string.HINT_UNSOLVABLE_MESSAGE, Toast.LENGTH_SHORT).show();
+            break;
+          default:
+            Toast.makeText(getApplicationContext(),
+                R.string.HINT_NOT_FOUND_MESSAGE, Toast.LENGTH_SHORT).show();
+            break;
+        }
+    }
+
+    /**
+     * The board changed - drop the hint shown or asked for, unless the
+     * player only walked around in the same area.
+     */
+    private void checkHint()
+    {
+        if ((m_hint != null || m_hintPending) &&
+            m_hintEngine.getKey(m_board) != m_hintKey)
+            clearHint();
+    }
+
+    /**
+     * Drop the hint shown, and stop the search for one.
+     */
+    private void clearHint()
+    {
+        m_hint = null;
+        m_hintPending = false;
+        m_hintEngine.cancel();
+    }
+
+    /**
+     * If the last move deadlocked the board, tell the player, so they can
+     * undo it rather than play on.
+     *
+     * @param wasDeadlocked Whether the board was deadlocked before the move.
+     * @param box The square of the box the move pushed, or -1.
+     */
+    private void checkDeadlocked(boolean wasDeadlocked, int box)
+    {
+        if (!wasDeadlocked && (m_board.isDeadlocked() ||
+            (box >= 0 && m_deadlockPatterns.isDeadlocked(m_board, box))))
+        {
+            Toast.makeText(getApplicationContext(), R.string.DEADLOCK_MESSAGE,
+                Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * If the board was solved, mark the level as passed, and advance to
+     * the next one.
+     */
+    private void checkSolved()
+    {
         if (m_board.isSolved())
         {
+            optimizeSolution();
             refreshPassedLevels();
             advanceLevel();
             SoundPoolManager.getInstance(this).play(SoundPoolManager.SOUND_ID_LEVEL_UP);
@@ -311,18 +768,47 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * Undo the last move done.
+     * Optimize the solution just played, in the background, and tell the
+     * player how short it could have been. The game moves on to the next
+     * level in the meantime.
      */
-    public void undoMove()
+    private void optimizeSolution()
     {
-        if (m_moveList.size() > 0)
+        final int[] steps = new int[m_moveJournal.size()];
+        final Board start = m_board.fork();
+        int pushes = 0;
+        for (int i = steps.length - 1; i >= 0; i--)
         {
-            Move move = m_moveList.lastElement();
-            m_moveList.setSize(m_moveList.size() - 1);
-            m_board.undoMove(move);
-            setUndoButtonsState();
-            m_gameView.invalidate();
+            steps[i] = m_moveJournal.get(i);
+            start.undoStep(steps[i]);
+            if (Move.isPush(steps[i]))
+                pushes++;
         }
+        final int playedPushes = pushes;
+        m_optimizer.submit(new Runnable()
+        {
+            public void run()
+            {
+                final Solution solution = new SolutionOptimizer().optimize(
+                    start, steps, steps.length);
+                if (solution == null ||
+                    (solution.getMoveCount() == steps.length &&
+                     solution.getPushCount() == playedPushes))
+                    return;
+                runOnUiThread(new Runnable()
+                {
+                    public void run()
+                    {
+                        Toast.makeText(getApplicationContext(),
+                            getString(R.string.SOLUTION_IMPROVED_MESSAGE,
+                                steps.length, playedPushes,
+                                solution.getMoveCount(),
+                                solution.getPushCount()),
+                            Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -363,6 +849,7 @@ public class SokoGameActivity extends Activity
         m_previousLevelMenuItem = (MenuItem)menu.findItem(R.id.MENU_ITEM_PREV);
         m_nextLevelMenuItem = (MenuItem)menu.findItem(R.id.MENU_ITEM_NEXT);
         m_undoMenuItem = (MenuItem)menu.findItem(R.id.MENU_ITEM_UNDO);
+        m_solutionMenuItem = (MenuItem)menu.findItem(R.id.MENU_ITEM_SOLUTION);
 
         setUrlToShowOnMenuItem(menu, R.id.MENU_ITEM_HELP, R.string.HELP_URL);
 
@@ -399,6 +886,12 @@ public class SokoGameActivity extends Activity
           case R.id.MENU_ITEM_RESTART:
             setLevel(m_level);
             return true;
+          case R.id.MENU_ITEM_HINT:
+            requestHint();
+            return true;
+          case R.id.MENU_ITEM_SOLUTION:
+            showSolution();
+            return true;
           case R.id.MENU_ITEM_EXIT:
             writeCurrentLevelNumber();
             finish();
@@ -445,9 +938,8 @@ public class SokoGameActivity extends Activity
         }
         if (moveDir != -1)
         {
-            Move move = new Move(moveDir);
             Log.d(this.getClass().getName(), "Moving to: " + moveDir);
-            doMove(move);
+            doMove(moveDir);
             return true;
         }
         Log.d(this.getClass().getName(), "Unhandled key event.");
@@ -464,13 +956,13 @@ public class SokoGameActivity extends Activity
         if (src == m_navUndoButton || src == m_standaloneUndoButton)
             undoMove();
         else if (src == m_upButton)
-            doMove(new Move(Move.DIR_UP));
+            doMove(Move.DIR_UP);
         else if (src == m_downButton)
-            doMove(new Move(Move.DIR_DOWN));
+            doMove(Move.DIR_DOWN);
         else if (src == m_leftButton)
-            doMove(new Move(Move.DIR_LEFT));
+            doMove(Move.DIR_LEFT);
         else if (src == m_rightButton)
-            doMove(new Move(Move.DIR_RIGHT));
+            doMove(Move.DIR_RIGHT);
     }
 
     /**
@@ -516,6 +1008,14 @@ public class SokoGameActivity extends Activity
         Resources res = getResources();
         m_maxLevel = res.getInteger(R.integer.NUM_LEVELS);
         m_invalLevels = new HashSet<String>(Arrays.asList(res.getString(R.string.INVAL_LEVELS).split(",")));
+        // Opened once - reopening it would lose the patterns not saved yet.
+        if (m_deadlockPatterns == null)
+        {
+            m_deadlockPatterns = DeadlockPatterns.open(
+                new File(getFilesDir(), DEADLOCK_PATTERNS_FILE));
+            m_hintEngine.setDeadlockPatterns(m_deadlockPatterns);
+        }
+        m_solutionCache = SolutionCache.open(getAssets());
         m_statusView = (TextView)findViewById(R.id.status_view);
         m_navUndoButton = initButton(R.id.nav_undo_button);
         m_standaloneUndoButton = initButton(R.id.standalone_undo_button);
@@ -536,7 +1036,7 @@ public class SokoGameActivity extends Activity
                     finish();
             }
         }else {
-            String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveList.size());
+            String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveJournal.size());
             m_statusView.setText(statusText);
             setUndoButtonsState();
             setLevelButtonsState();
@@ -608,10 +1108,10 @@ public class SokoGameActivity extends Activity
      */
     private void setUndoButtonsState()
     {
-        String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveList.size());
+        String statusText = getString(R.string.LEVEL_TEXT, m_level, m_moveJournal.size());
         m_statusView.setText(statusText);
         
-        boolean enabled = !m_moveList.isEmpty();
+        boolean enabled = !m_moveJournal.isEmpty();
         int buttonTransparency =
             (enabled ? UNDO_ENABLED_TRANSPARENCY : UNDO_DISABLED_TRANSPARENCY);
         m_navUndoButton.setEnabled(enabled);
@@ -624,7 +1124,8 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * Enable/disable the level select options according to the current level.
+     * Enable/disable the level select options according to the current level,
+     * and show the solution option only for levels with a known solution.
      */
     private void setLevelButtonsState()
     {
@@ -635,6 +1136,8 @@ public class SokoGameActivity extends Activity
 
         m_previousLevelMenuItem.setEnabled(m_level > 1);
         m_nextLevelMenuItem.setEnabled(m_level < m_maxLevel);
+        m_solutionMenuItem.setVisible(m_solutionCache != null &&
+            m_solutionCache.hasSolution(m_level));
     }
 
     /**
@@ -694,6 +1197,7 @@ public class SokoGameActivity extends Activity
     	
     	setBoolPrefDefault(R.string.PREF_SHOW_NAV_BUTTONS_KEY, true);
         setBoolPrefDefault(R.string.PREF_SHOW_UNDO_BUTTON_KEY, true);
+        setBoolPrefDefault(R.string.PREF_TAP_TO_WALK_KEY, true);
     }
 
     /**
@@ -723,6 +1227,7 @@ public class SokoGameActivity extends Activity
             getBoolPrefByKeyID(R.string.PREF_SHOW_NAV_BUTTONS_KEY, false);
         boolean showUndoButtonPref =
             getBoolPrefByKeyID(R.string.PREF_SHOW_UNDO_BUTTON_KEY, false);
+        m_tapToWalk = getBoolPrefByKeyID(R.string.PREF_TAP_TO_WALK_KEY, true);
 
         View navButtonView = findViewById(R.id.nav_button_view);
 
@@ -818,6 +1323,40 @@ public class SokoGameActivity extends Activity
         editor.commit();
     }
 
+    /**
+     * Save the deadlock pattern database on the saver's thread, so the
+     * file isn't written on the UI thread.
+     */
+    private void submitPatternSave()
+    {
+        m_patternSaver.submit(new Runnable()
+        {
+            public void run()
+            {
+                saveDeadlockPatterns();
+            }
+        });
+    }
+
+    /**
+     * Save the deadlock pattern database, if patterns were learned since it
+     * was last saved. May be called from any thread.
+     */
+    private void saveDeadlockPatterns()
+    {
+        DeadlockPatterns patterns = m_deadlockPatterns;
+        if (patterns == null || !patterns.hasUnsavedPatterns())
+            return;
+        try
+        {
+            patterns.save(new File(getFilesDir(), DEADLOCK_PATTERNS_FILE));
+        }
+        catch (IOException e)
+        {
+            Log.e(this.getClass().toString(), Log.getStackTraceString(e));
+        }
+    }
+
     /**
      * Get the invalid levels.
      */
@@ -828,6 +1367,12 @@ public class SokoGameActivity extends Activity
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        m_hintEngine.shutdown();
+        m_optimizer.shutdownNow();
+        m_handler.removeCallbacks(m_savePatternsStep);
+        // The last save still runs once the saver is shut down.
+        submitPatternSave();
+        m_patternSaver.shutdown();
         SoundPoolManager.getInstance(this).release();
     }
 }
\ No newline at end of file
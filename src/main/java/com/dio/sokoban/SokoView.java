@@ -23,12 +23,16 @@ package com.dio.sokoban;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
 
+import com.dio.sokoban.solver.HintEngine;
+
 /**
  * The sokoban game view. The game view is a view that is associated with a
  * board, and can draw it.
@@ -56,6 +60,16 @@ public class SokoView extends View
      */
     private GameResourceManager m_resourceManager;
 
+    /**
+     * The column of the square where the current touch gesture started.
+     */
+    private int m_touchColumn;
+
+    /**
+     * The row of the square where the current touch gesture started.
+     */
+    private int m_touchRow;
+
 
     //
     // Operations.
@@ -120,6 +134,45 @@ public class SokoView extends View
                 drawSquare(column, row, squareRealSize, board, canvas);
             }
         }
+
+        HintEngine.Hint hint = m_game.getHint();
+        if (hint != null)
+            drawHint(hint, squareRealSize, board, canvas);
+    }
+
+    /**
+     * A touch event. Tapping a square, or dragging from one square to
+     * another, is passed on to the game - which may walk the player to the
+     * tapped square, or push a dragged box to where it was dropped.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        if (m_game == null)
+            return super.onTouchEvent(event);
+
+        int squareSize = getSquareSize();
+        if (squareSize <= 0)
+            return super.onTouchEvent(event);
+        int column = (int)event.getX() / squareSize;
+        int row = (int)event.getY() / squareSize;
+
+        switch (event.getAction())
+        {
+            case MotionEvent.ACTION_DOWN:
+                // Claim the gesture, so that we get the ACTION_UP.
+                m_touchColumn = column;
+                m_touchRow = row;
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (column == m_touchColumn && row == m_touchRow)
+                    m_game.onSquareTapped(column, row);
+                else
+                    m_game.onSquareDragged(m_touchColumn, m_touchRow,
+                        column, row);
+                return true;
+        }
+        return super.onTouchEvent(event);
     }
 
     /**
@@ -158,30 +211,28 @@ public class SokoView extends View
                              int squareSize, Board board,
                              Canvas canvas)
     {
-        BoardSquare square = board.getSquare(column, row);
-        if (square == null)
-            return;
+        byte square = board.getSquare(column, row);
 
-        if (square.isWall())
+        if (BoardSquare.isWall(square))
         {
             drawBitmap(m_resourceManager.getWallBitmap(), column, row,
                     squareSize, canvas);
             return;
         }
 
-        if (square.isInsideBoard())
+        if (BoardSquare.isInsideBoard(square))
         {
             drawBitmap(m_resourceManager.getTileBitmap(), column, row,
                     squareSize, canvas);
         }
 
-        if (square.isTarget())
+        if (BoardSquare.isTarget(square))
         {
             drawBitmap(m_resourceManager.getTargetBitmap(), column, row,
                        squareSize, canvas);
         }
 
-        if (square.hasBox())
+        if (BoardSquare.hasBox(square))
         {
             drawBitmap(m_resourceManager.getBoxBitmap(), column, row,
                     squareSize, canvas);
@@ -194,6 +245,36 @@ public class SokoView extends View
         }
     }
 
+    /**
+     * Draw a hint: a frame around the box to push, and a line from its
+     * center to the side it's pushed to.
+     *
+     * @param hint The hint.
+     * @param squareSize The square width and height.
+     * @param board The game board.
+     * @param canvas The canvas to draw on.
+     */
+    private void drawHint(HintEngine.Hint hint, int squareSize, Board board,
+                          Canvas canvas)
+    {
+        int column = hint.getBox() % board.getBoardWidth();
+        int row = hint.getBox() / board.getBoardWidth();
+        int squareLeft = column * squareSize;
+        int squareTop = row * squareSize;
+        int center = squareSize / 2;
+
+        m_paint.setColor(Color.YELLOW);
+        m_paint.setStyle(Paint.Style.STROKE);
+        m_paint.setStrokeWidth(Math.max(2, squareSize / 12));
+        canvas.drawRect(squareLeft + 1, squareTop + 1,
+                squareLeft + squareSize - 2, squareTop + squareSize - 2,
+                m_paint);
+        canvas.drawLine(squareLeft + center, squareTop + center,
+                squareLeft + center + Move.getXDelta(hint.getDir()) * center,
+                squareTop + center + Move.getYDelta(hint.getDir()) * center,
+                m_paint);
+    }
+
     /**
      * Draw the given bitmap in the given position.
      *
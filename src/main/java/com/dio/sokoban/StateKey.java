@@ -0,0 +1,206 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * A compact, canonical key of a board position, for transposition tables
+ * and caches. The key holds the box squares, in ascending order, and the
+ * player's normalized position: the top-left square (the lowest index) of the
+ * area the player can reach without pushing. Positions which differ only by
+ * where the player stands inside that area get equal keys, since any of them
+ * can be turned into any other by walking.
+ *
+ * The squares are packed as 16-bit values, four to a long, so keys work for
+ * boards of up to 65536 squares. The hash code is computed once, when the
+ * key is created.
+ */
+public final class StateKey
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The largest board (in squares) a key can describe.
+     */
+    public final static int MAX_SQUARES = 1 << 16;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The packed squares: the normalized player square, then the boxes.
+     */
+    private final long[] m_words;
+
+    /**
+     * The number of boxes.
+     */
+    private final int m_boxCount;
+
+    /**
+     * The precomputed hash code.
+     */
+    private final int m_hashCode;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a key. Use a Builder to create keys from boards.
+     */
+    private StateKey(long[] words, int boxCount)
+    {
+        m_words = words;
+        m_boxCount = boxCount;
+        long hash = 0;
+        for (int i = 0; i < words.length; i++)
+            hash = (hash ^ words[i]) * 0x9E3779B97F4A7C15L;
+        m_hashCode = (int)(hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return The normalized player square - the lowest index the player
+     * can reach.
+     */
+    public int getPlayerPos()
+    {
+        return getPacked(0);
+    }
+
+    /**
+     * @return The number of boxes.
+     */
+    public int getBoxCount()
+    {
+        return m_boxCount;
+    }
+
+    /**
+     * Get a box square. Boxes are in ascending square order.
+     *
+     * @param index The box index, from 0 to getBoxCount() - 1.
+     */
+    public int getBox(int index)
+    {
+        return getPacked(index + 1);
+    }
+
+    /**
+     * Helper method - get one of the packed squares.
+     */
+    private int getPacked(int index)
+    {
+        return (int)(m_words[index >>> 2] >>> ((index & 3) << 4)) & 0xFFFF;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return m_hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (this == other)
+            return true;
+        if (!(other instanceof StateKey))
+            return false;
+        StateKey otherKey = (StateKey)other;
+        return m_hashCode == otherKey.m_hashCode &&
+            Arrays.equals(m_words, otherKey.m_words);
+    }
+
+    /**
+     * Creates state keys from boards. The builder keeps its work buffers
+     * between calls, so building a key allocates nothing but the key itself.
+     * A builder is not thread safe - use one per thread.
+     */
+    public static class Builder
+    {
+        /**
+         * The player reachability, reused between keys.
+         */
+        private Reachability m_reachability = new Reachability();
+
+        /**
+         * Build the key of a board's current position.
+         *
+         * @param board The board.
+         * @return The key.
+         * @throws IllegalArgumentException if the board is too large.
+         */
+        public StateKey build(Board board)
+        {
+            return build(board, normalizedPlayerPos(board));
+        }
+
+        /**
+         * Build the key of a board's current position, when the normalized
+         * player position is already known (say, from a Reachability
+         * computed for the position anyway).
+         *
+         * @param board The board.
+         * @param playerPos The normalized player position.
+         * @return The key.
+         * @throws IllegalArgumentException if the board is too large.
+         */
+        public StateKey build(Board board, int playerPos)
+        {
+            if (board.getSquareCount() > MAX_SQUARES)
+                throw new IllegalArgumentException("Board too large: " +
+                    board.getSquareCount() + " squares");
+
+            long[] boxes = board.getBitBoard().getBoxes();
+            int boxCount = Bits.count(boxes);
+            long[] words = new long[(boxCount + 1 + 3) >>> 2];
+            int packed = 0;
+            words[0] = playerPos;
+            packed++;
+            for (int word = 0; word < boxes.length; word++)
+            {
+                long bits = boxes[word];
+                while (bits != 0)
+                {
+                    long pos = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    words[packed >>> 2] |= pos << ((packed & 3) << 4);
+                    packed++;
+                }
+            }
+            return new StateKey(words, boxCount);
+        }
+
+        /**
+         * Get the normalized player position of a board: the lowest square
+         * index the player can walk to without pushing a box.
+         */
+        public int normalizedPlayerPos(Board board)
+        {
+            m_reachability.compute(board);
+            return m_reachability.getTopLeft();
+        }
+    }
+}
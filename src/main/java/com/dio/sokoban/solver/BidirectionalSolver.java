@@ -0,0 +1,500 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Bits;
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.Reachability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bidirectional solver. A forward search pushes boxes from the start
+ * position, and a backward search pulls boxes from the solved position -
+ * all boxes on targets, with the player in any area next to a box it can
+ * pull. Each runs breadth-first on its own thread, and both record the
+ * positions they reach in one shared table, keyed by the position's hash
+ * with the normalized player square (see Board.stateHash(int)). When one
+ * search reaches a position the other has already reached, the pushes to
+ * it and the pulls from it, played in reverse, make a solution.
+ *
+ * Pulling works well on levels whose boxes have to be packed in a tight
+ * order: the order is easy to find backwards. The solution isn't always the
+ * one with the fewest pushes.
+ *
+ * The table holds every position reached, so its size is bounded by the
+ * memory budget (see Solver.setTableMemory()): a search which fills it stops
+ * as if it ran out of its node budget.
+ */
+public class BidirectionalSolver extends Solver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of nodes between budget charges.
+     */
+    private final static int CHARGE_INTERVAL = 256;
+
+    /**
+     * The approximate size of a table entry, in bytes, beside its position
+     * snapshot's box set: the map entry, the boxed key, the node, and the
+     * snapshot object.
+     */
+    private final static int ENTRY_OVERHEAD = 160;
+
+    //
+    // Operations.
+    //
+
+    @Override
+    public Solution solve(Board board)
+    {
+        long startTime = System.currentTimeMillis();
+        SearchBudget budget = startRun();
+        if (board.isSolved())
+            return new Solution(Solution.SOLVED, "", 0, 0);
+
+        ConcurrentMap<Long, Node> table = new ConcurrentHashMap<Long, Node>();
+        long entrySize = ENTRY_OVERHEAD +
+            8L * board.getBitBoard().createSet().length;
+        TableSpace space = new TableSpace(getTableMemory() / entrySize);
+        Meeting meeting = new Meeting();
+        Side forward = new Side(board.fork(), true, table, space, budget,
+            meeting);
+        Side backward = new Side(board.fork(), false, table, space, budget,
+            meeting);
+        forward.m_deadlockPatterns = getDeadlockPatterns();
+        forward.addForwardStart();
+        backward.addBackwardStarts();
+
+        int status;
+        ExecutorService executor = Executors.newFixedThreadPool(2,
+            new SolverThreadFactory());
+        try
+        {
+            Future<Boolean> forwardResult = executor.submit(forward);
+            Future<Boolean> backwardResult = executor.submit(backward);
+            boolean exhausted = getResult(forwardResult);
+            exhausted |= getResult(backwardResult);
+
+            if (meeting.m_forward != null)
+                status = Solution.SOLVED;
+            else if (exhausted)
+                status = Solution.UNSOLVABLE;
+            else
+                status = stoppedStatus();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        String lurd = null;
+        if (status == Solution.SOLVED)
+            lurd = meeting.toLurd(board);
+        return createSolution(status, lurd, budget, startTime);
+    }
+
+    /**
+     * Helper method - get a search thread's result.
+     */
+    private static boolean getResult(Future<Boolean> future)
+    {
+        try
+        {
+            return future.get().booleanValue();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("A solver thread failed",
+                e.getCause());
+        }
+    }
+
+    /**
+     * A position reached by one of the searches. The push which led to it is
+     * kept in forward terms, as the box square before the push and the push
+     * direction: a forward node was reached by that push from its parent,
+     * and a backward node leads to its parent by it.
+     */
+    private static class Node
+    {
+        final Node m_parent;
+        final boolean m_forward;
+        final int m_box;
+        final int m_dir;
+        final int m_depth;
+
+        /**
+         * The position, until the node is expanded.
+         */
+        Board.Snapshot m_snapshot;
+
+        Node(Node parent, boolean forward, int box, int dir,
+            Board.Snapshot snapshot)
+        {
+            m_parent = parent;
+            m_forward = forward;
+            m_box = box;
+            m_dir = dir;
+            m_depth = (parent == null) ? 0 : parent.m_depth + 1;
+            m_snapshot = snapshot;
+        }
+    }
+
+    /**
+     * The number of table entries left, shared by both searches.
+     */
+    private static class TableSpace
+    {
+        private final AtomicLong m_left;
+
+        TableSpace(long entries)
+        {
+            m_left = new AtomicLong(entries);
+        }
+
+        /**
+         * Take the space of an entry.
+         *
+         * @return false if the table is full.
+         */
+        boolean take()
+        {
+            return m_left.decrementAndGet() >= 0;
+        }
+    }
+
+    /**
+     * Where the searches met: the same position, reached by both.
+     */
+    private static class Meeting
+    {
+        Node m_forward;
+        Node m_backward;
+
+        /**
+         * Record a meeting, unless there already is one.
+         */
+        synchronized void meet(Node a, Node b)
+        {
+            if (m_forward != null)
+                return;
+            m_forward = a.m_forward ? a : b;
+            m_backward = a.m_forward ? b : a;
+        }
+
+        /**
+         * Turn the meeting into a solution: the pushes to the forward node,
+         * then the pushes back along the backward node's path.
+         */
+        String toLurd(Board start)
+        {
+            int count = m_forward.m_depth + m_backward.m_depth;
+            int[] boxes = new int[count];
+            int[] dirs = new int[count];
+            int index = m_forward.m_depth;
+            for (Node node = m_forward; node.m_parent != null;
+                node = node.m_parent)
+            {
+                index--;
+                boxes[index] = node.m_box;
+                dirs[index] = node.m_dir;
+            }
+            index = m_forward.m_depth;
+            for (Node node = m_backward; node.m_parent != null;
+                node = node.m_parent)
+            {
+                boxes[index] = node.m_box;
+                dirs[index] = node.m_dir;
+                index++;
+            }
+            return Solver.toLurd(start, boxes, dirs, count);
+        }
+    }
+
+    /**
+     * One direction of the search, run on its own thread.
+     */
+    private static class Side implements Callable<Boolean>
+    {
+        private final Board m_board;
+        private final boolean m_forward;
+        private final ConcurrentMap<Long, Node> m_table;
+        private final TableSpace m_space;
+        private final SearchBudget m_budget;
+        private final Meeting m_meeting;
+        private DeadlockPatterns m_deadlockPatterns;
+        private final Reachability m_reachability = new Reachability();
+        private final Reachability m_childReachability = new Reachability();
+        private List<Node> m_layer = new ArrayList<Node>();
+        private List<Node> m_nextLayer = new ArrayList<Node>();
+        private int m_unchargedNodes;
+
+        Side(Board board, boolean forward, ConcurrentMap<Long, Node> table,
+            TableSpace space, SearchBudget budget, Meeting meeting)
+        {
+            m_board = board;
+            m_forward = forward;
+            m_table = table;
+            m_space = space;
+            m_budget = budget;
+            m_meeting = meeting;
+        }
+
+        /**
+         * Add the start position.
+         */
+        void addForwardStart()
+        {
+            addNode(null, -1, -1);
+            swapLayers();
+        }
+
+        /**
+         * Add the solved positions: all boxes on targets, and the player in
+         * each area next to a box it can pull.
+         */
+        void addBackwardStarts()
+        {
+            long[] floor = m_board.getBitBoard().getFloor();
+            long[] targets = m_board.getBitBoard().getTargets();
+            m_board.setBoxes(targets);
+            long[] covered = m_board.getBitBoard().createSet();
+            for (int pos = 0; pos < m_board.getSquareCount(); pos++)
+            {
+                if (!Bits.get(floor, pos) || Bits.get(targets, pos) ||
+                    Bits.get(covered, pos))
+                    continue;
+                m_reachability.compute(m_board, pos);
+                for (int square = pos; square < m_board.getSquareCount();
+                    square++)
+                {
+                    if (m_reachability.isReachable(square))
+                        Bits.set(covered, square);
+                }
+                m_board.placePlayer(pos);
+                if (hasPull())
+                    addNode(null, -1, -1);
+            }
+            swapLayers();
+        }
+
+        /**
+         * Search, a layer at a time, until the searches meet, the budget
+         * runs out, or there's nothing left to search.
+         *
+         * @return true if this side ran out of positions to search, which
+         * means the level can't be solved.
+         */
+        public Boolean call()
+        {
+            while (!m_layer.isEmpty())
+            {
+                for (int i = 0; i < m_layer.size(); i++)
+                {
+                    if (++m_unchargedNodes == CHARGE_INTERVAL)
+                    {
+                        m_unchargedNodes = 0;
+                        if (!m_budget.charge(CHARGE_INTERVAL))
+                            return Boolean.FALSE;
+                    }
+                    else if (m_budget.isStopped())
+                    {
+                        return Boolean.FALSE;
+                    }
+
+                    Node node = m_layer.get(i);
+                    m_board.restore(node.m_snapshot);
+                    node.m_snapshot = null;
+                    if (m_forward)
+                        expandPushes(node);
+                    else
+                        expandPulls(node);
+                }
+                swapLayers();
+            }
+            m_budget.charge(m_unchargedNodes);
+            m_unchargedNodes = 0;
+            if (m_budget.isStopped())
+                return Boolean.FALSE;
+            m_budget.stop();
+            return Boolean.TRUE;
+        }
+
+        /**
+         * Helper method - add the positions one push away.
+         */
+        private void expandPushes(Node node)
+        {
+            m_reachability.compute(m_board);
+            int player = m_board.getPlayerPos();
+            for (int i = 0; i < m_reachability.getPushCount(); i++)
+            {
+                int box = m_reachability.getPushBox(i);
+                int dir = m_reachability.getPushDir(i);
+                if (m_board.isDeadSquare(box + m_board.getDirOffset(dir)))
+                    continue;
+                m_board.placePlayer(box - m_board.getDirOffset(dir));
+                int step = m_board.step(dir);
+                if (step == Move.STEP_ILLEGAL)
+                {
+                    m_board.placePlayer(player);
+                    continue;
+                }
+                if (!m_board.isDeadlocked() && (m_deadlockPatterns == null ||
+                    !m_deadlockPatterns.learn(m_board,
+                        box + m_board.getDirOffset(dir))))
+                    addNode(node, box, dir);
+                m_board.undoStep(step);
+                m_board.placePlayer(player);
+            }
+        }
+
+        /**
+         * Helper method - add the positions one pull away. A pull is a push
+         * undone: the player, between a box and a free square, steps back
+         * onto the free square and drags the box after it.
+         */
+        private void expandPulls(Node node)
+        {
+            m_reachability.compute(m_board);
+            int player = m_board.getPlayerPos();
+            for (int pos = 0; pos < m_board.getSquareCount(); pos++)
+            {
+                if (!m_reachability.isReachable(pos))
+                    continue;
+                for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+                {
+                    if (!canPull(pos, dir))
+                        continue;
+                    m_board.placePlayer(pos);
+                    m_board.undoStep(dir | Move.STEP_PUSH);
+                    // In forward terms, the box is pushed back from pos.
+                    addNode(node, pos, dir);
+                    m_board.step(dir);
+                    m_board.placePlayer(player);
+                }
+            }
+        }
+
+        /**
+         * Helper method - check whether the player, standing on a square,
+         * can pull the box in the given direction from it.
+         */
+        private boolean canPull(int pos, int dir)
+        {
+            int box = m_board.getNeighbour(pos, dir);
+            int back = m_board.getNeighbour(pos, Move.getOppositeDir(dir));
+            if (box < 0 || back < 0)
+                return false;
+            byte backSquare = m_board.getSquare(back);
+            return BoardSquare.hasBox(m_board.getSquare(box)) &&
+                !BoardSquare.isWall(backSquare) &&
+                !BoardSquare.hasBox(backSquare) &&
+                m_board.isInsideBoard(back);
+        }
+
+        /**
+         * Helper method - check whether the player can pull any box from
+         * where it stands.
+         */
+        private boolean hasPull()
+        {
+            m_reachability.compute(m_board);
+            for (int pos = 0; pos < m_board.getSquareCount(); pos++)
+            {
+                if (!m_reachability.isReachable(pos))
+                    continue;
+                for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+                {
+                    if (canPull(pos, dir))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Helper method - record the board's current position, reached from
+         * a node by a push or pull. A position this side has seen is
+         * dropped; one the other side has seen is where the searches meet.
+         * A new position which doesn't fit in the table stops the searches.
+         */
+        private void addNode(Node parent, int box, int dir)
+        {
+            m_childReachability.compute(m_board);
+            Long hash = Long.valueOf(
+                m_board.stateHash(m_childReachability.getTopLeft()));
+            Node seen = m_table.get(hash);
+            if (seen == null)
+            {
+                if (!m_space.take())
+                {
+                    m_budget.stop();
+                    return;
+                }
+                Node node = new Node(parent, m_forward, box, dir,
+                    m_board.snapshot());
+                seen = m_table.putIfAbsent(hash, node);
+                if (seen == null)
+                {
+                    m_nextLayer.add(node);
+                    return;
+                }
+            }
+            if (seen.m_forward != m_forward)
+            {
+                m_meeting.meet(new Node(parent, m_forward, box, dir, null),
+                    seen);
+                m_budget.stop();
+            }
+        }
+
+        /**
+         * Helper method - make the next layer the current one.
+         */
+        private void swapLayers()
+        {
+            List<Node> layer = m_layer;
+            m_layer = m_nextLayer;
+            m_nextLayer = layer;
+            m_nextLayer.clear();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Bits;
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.IntQueue;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.Reachability;
+
+import java.util.Arrays;
+
+/**
+ * Corral pruning. A corral is an area of the board the player can't reach,
+ * closed off by boxes - its fence. A corral is a PI-corral if every push of
+ * a fence box the player could make goes into the corral (I), and the
+ * player can already reach every square it needs to push a fence box into
+ * the corral (P). Such a corral which still has work to do - a box off a
+ * target, or an empty target - has to be entered by one of those pushes
+ * sooner or later, and nothing done elsewhere makes them any cheaper, so a
+ * search only needs to try the pushes into it.
+ *
+ * Corrals are found with the player's reachability of the position, which
+ * the search has already computed; squares are marked with generation
+ * stamps, so no node allocates anything.
+ */
+class CorralPruner
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The stamp of the corral each square was last found in.
+     */
+    private int[] m_stamp = new int[0];
+
+    /**
+     * The stamp of the last corral found.
+     */
+    private int m_generation;
+
+    /**
+     * The number of squares of the board being searched.
+     */
+    private int m_squareCount;
+
+    /**
+     * The flood fill queue.
+     */
+    private final IntQueue m_queue = new IntQueue(64);
+
+    /**
+     * The fence boxes of the corral being checked.
+     */
+    private int[] m_fenceBoxes = new int[16];
+
+    /**
+     * The number of fence boxes of the corral being checked.
+     */
+    private int m_fenceCount;
+
+    /**
+     * The fence boxes of the best PI-corral found, as a bitset.
+     */
+    private long[] m_fence = new long[0];
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Look for a PI-corral in the board's current position. If there are
+     * several, the one with the fewest pushes into it is taken.
+     *
+     * @param board The board.
+     * @param reachability The player's reachability in the position.
+     * @return true if a PI-corral was found; its fence is then returned by
+     * getFence().
+     */
+    boolean find(Board board, Reachability reachability)
+    {
+        int squareCount = board.getSquareCount();
+        m_squareCount = squareCount;
+        if (m_stamp.length < squareCount)
+        {
+            m_stamp = new int[squareCount];
+            m_fence = Bits.create(squareCount);
+            m_generation = 0;
+        }
+        if (m_generation > Integer.MAX_VALUE - squareCount)
+        {
+            Arrays.fill(m_stamp, 0);
+            m_generation = 0;
+        }
+
+        long[] floor = board.getBitBoard().getFloor();
+        int firstStamp = m_generation + 1;
+        int bestPushes = Integer.MAX_VALUE;
+        for (int seed = 0; seed < squareCount; seed++)
+        {
+            if (!Bits.get(floor, seed) || reachability.isReachable(seed) ||
+                m_stamp[seed] >= firstStamp ||
+                BoardSquare.hasBox(board.getSquare(seed)))
+                continue;
+
+            m_generation++;
+            boolean unsolved = fill(board, reachability, floor, seed);
+            if (!unsolved)
+                continue;
+            int pushes = countPushesIn(board, reachability, floor);
+            if (pushes > 0 && pushes < bestPushes)
+            {
+                bestPushes = pushes;
+                Arrays.fill(m_fence, 0);
+                for (int i = 0; i < m_fenceCount; i++)
+                    Bits.set(m_fence, m_fenceBoxes[i]);
+            }
+        }
+        return bestPushes != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return The fence boxes of the PI-corral found by find(), as a bitset.
+     */
+    long[] getFence()
+    {
+        return m_fence;
+    }
+
+    /**
+     * Helper method - flood fill a corral, which includes the boxes in it,
+     * and collect its fence: the boxes next to a square the player can
+     * reach.
+     *
+     * @return true if the corral has a box off a target, or an empty
+     * target.
+     */
+    private boolean fill(Board board, Reachability reachability,
+        long[] floor, int seed)
+    {
+        boolean unsolved = false;
+        m_fenceCount = 0;
+        m_stamp[seed] = m_generation;
+        m_queue.clear();
+        m_queue.add(seed);
+        while (!m_queue.isEmpty())
+        {
+            int pos = m_queue.remove();
+            byte square = board.getSquare(pos);
+            if (BoardSquare.hasBox(square) != BoardSquare.isTarget(square))
+                unsolved = true;
+
+            boolean fence = false;
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int next = board.getNeighbour(pos, dir);
+                if (!isFloor(floor, next))
+                    continue;
+                if (reachability.isReachable(next))
+                {
+                    fence = true;
+                    continue;
+                }
+                if (m_stamp[next] == m_generation)
+                    continue;
+                m_stamp[next] = m_generation;
+                m_queue.add(next);
+            }
+            if (fence && BoardSquare.hasBox(square))
+                addFenceBox(pos);
+        }
+        return unsolved;
+    }
+
+    /**
+     * Helper method - check whether the corral just filled is a PI-corral,
+     * and count the pushes into it.
+     *
+     * @return The number of pushes into the corral, or 0 if it's not a
+     * PI-corral.
+     */
+    private int countPushesIn(Board board, Reachability reachability,
+        long[] floor)
+    {
+        int pushes = 0;
+        for (int i = 0; i < m_fenceCount; i++)
+        {
+            int box = m_fenceBoxes[i];
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int player = board.getNeighbour(box,
+                    Move.getOppositeDir(dir));
+                int target = board.getNeighbour(box, dir);
+                if (!isFloor(floor, player) || !isFloor(floor, target) ||
+                    m_stamp[player] == m_generation)
+                    continue;
+
+                // A push out of the corral, or along its fence, is one the
+                // search can't do without - even if a box blocks it for now.
+                if (m_stamp[target] != m_generation)
+                    return 0;
+                if (BoardSquare.hasBox(board.getSquare(target)))
+                    continue;
+                if (!reachability.isReachable(player))
+                    return 0;
+                pushes++;
+            }
+        }
+        return pushes;
+    }
+
+    /**
+     * Helper method - add a box to the fence of the corral being filled.
+     */
+    private void addFenceBox(int pos)
+    {
+        if (m_fenceCount == m_fenceBoxes.length)
+        {
+            int[] fenceBoxes = new int[m_fenceBoxes.length * 2];
+            System.arraycopy(m_fenceBoxes, 0, fenceBoxes, 0, m_fenceCount);
+            m_fenceBoxes = fenceBoxes;
+        }
+        m_fenceBoxes[m_fenceCount++] = pos;
+    }
+
+    /**
+     * Helper method - check whether a square is floor.
+     */
+    private boolean isFloor(long[] floor, int pos)
+    {
+        return pos >= 0 && pos < m_squareCount && Bits.get(floor, pos);
+    }
+}
@@ -0,0 +1,864 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.IntQueue;
+import com.dio.sokoban.Move;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A database of deadlock patterns: 4x4 windows of walls, targets and boxes
+ * which were proved to make any level they appear in unsolvable. Patterns
+ * are learned while solvers run, and kept in a file which is memory-mapped
+ * when it's opened, so the patterns learned on one level speed up the
+ * searches of every other.
+ *
+ * A window is proved deadlocked by a small search of its own: the squares
+ * around it are taken to be free floor, a box pushed out of it is gone,
+ * and the player may start in any area. If the boxes can't all end up on
+ * the window's targets even so, they can't on any real board either.
+ *
+ * Each pattern is stored under all 8 symmetries of the square, so a lookup
+ * is a single probe of a hash table, with no normalization. The file is the
+ * hash table itself - a header, then the slots - so it's used as mapped,
+ * without being read. Lookups may come from any thread, and take no lock:
+ * patterns are rare enough that learning one copies the table of learned
+ * patterns, and publishes the copy.
+ *
+ * The database is only written by save(). Its owner saves it now and then,
+ * and when it's done, so the next run starts with what this one learned.
+ */
+public class DeadlockPatterns
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The window size.
+     */
+    private final static int SIZE = 4;
+
+    /**
+     * The number of squares in a window.
+     */
+    private final static int CELLS = SIZE * SIZE;
+
+    /**
+     * The window square codes, 3 bits each in a pattern key.
+     */
+    private final static int FLOOR = 0;
+    private final static int WALL = 1;
+    private final static int TARGET = 2;
+    private final static int BOX = 3;
+    private final static int BOX_ON_TARGET = 4;
+    private final static int CODE_BITS = 3;
+
+    /**
+     * The file header: magic, version, slot count, pattern count.
+     */
+    private final static int MAGIC = 0x534B4450;
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+
+    /**
+     * The largest number of states a proof may search. A window whose proof
+     * needs more is taken not to be deadlocked.
+     */
+    private final static int MAX_PROOF_STATES = 256;
+
+    /**
+     * The number of slots of the cache of windows proved not deadlocked.
+     */
+    private final static int LIVE_WINDOW_SLOTS = 1 << 16;
+
+    /**
+     * The window square each symmetry takes each square from.
+     */
+    private final static int[][] SYMMETRIES = createSymmetries();
+
+    //
+    // Members.
+    //
+
+    /**
+     * The slots of the mapped file, or null if there's none.
+     */
+    private final LongBuffer m_mapped;
+
+    /**
+     * The number of patterns in the mapped file.
+     */
+    private final int m_mappedCount;
+
+    /**
+     * The slots of the patterns learned since the file was mapped. 0 is an
+     * empty slot. Never changed once published - add() replaces it.
+     */
+    private volatile long[] m_learned = new long[1024];
+
+    /**
+     * The number of keys in m_learned.
+     */
+    private int m_learnedKeys;
+
+    /**
+     * The number of patterns learned.
+     */
+    private int m_learnedCount;
+
+    /**
+     * The number of patterns learned when the database was last saved.
+     */
+    private int m_savedCount;
+
+    /**
+     * Held while the database is saved, so saves from different threads
+     * don't write the same file at once.
+     */
+    private final Object m_saveLock = new Object();
+
+    /**
+     * The proof buffers of each thread.
+     */
+    private final ThreadLocal<Prover> m_provers = new ThreadLocal<Prover>()
+    {
+        @Override
+        protected Prover initialValue()
+        {
+            return new Prover();
+        }
+    };
+
+    /**
+     * A cache of windows already proved not to be deadlocked, one window per
+     * slot - a newer window replaces the one in its slot. It's read and
+     * written without a lock: a stale slot only costs a proof, and since a
+     * window found here is only spared its proof, a bad read can't make a
+     * search unsound either.
+     */
+    private final long[] m_liveWindows = new long[LIVE_WINDOW_SLOTS];
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an empty database.
+     */
+    public DeadlockPatterns()
+    {
+        m_mapped = null;
+        m_mappedCount = 0;
+    }
+
+    /**
+     * Helper constructor for open().
+     */
+    private DeadlockPatterns(LongBuffer mapped, int mappedCount)
+    {
+        m_mapped = mapped;
+        m_mappedCount = mappedCount;
+    }
+
+    /**
+     * Open a database file, mapping it into memory. A missing or unreadable
+     * file gives an empty database.
+     *
+     * @param file The file.
+     * @return The database.
+     */
+    public static DeadlockPatterns open(File file)
+    {
+        if (!file.isFile())
+            return new DeadlockPatterns();
+        try
+        {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel channel = input.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+                if (buffer.capacity() < HEADER_SIZE ||
+                    buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                    return new DeadlockPatterns();
+                int slots = buffer.getInt(8);
+                int count = buffer.getInt(12);
+                // Saved files keep most slots empty, which ends the probes
+                // of keys which aren't there.
+                if (Integer.bitCount(slots) != 1 ||
+                    buffer.capacity() != HEADER_SIZE + slots * 8L ||
+                    count < 0 || (long)count * SYMMETRIES.length >= slots)
+                    return new DeadlockPatterns();
+                buffer.position(HEADER_SIZE);
+                return new DeadlockPatterns(buffer.slice().asLongBuffer(),
+                    count);
+            }
+            finally
+            {
+                // The mapping stays valid after the file is closed.
+                input.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return new DeadlockPatterns();
+        }
+    }
+
+    /**
+     * Save all patterns - mapped and learned - to a file. The file is
+     * written aside and renamed, so it may be the one this database was
+     * opened from. May be called from any thread, while patterns are looked
+     * up and learned.
+     *
+     * @param file The file.
+     * @throws IOException if the file can't be written.
+     */
+    public void save(File file) throws IOException
+    {
+        synchronized (m_saveLock)
+        {
+            write(file);
+        }
+    }
+
+    /**
+     * @return true if patterns were learned since the database was opened
+     * or last saved.
+     */
+    public synchronized boolean hasUnsavedPatterns()
+    {
+        return m_learnedCount != m_savedCount;
+    }
+
+    /**
+     * Helper method for save - write the file.
+     */
+    private void write(File file) throws IOException
+    {
+        long[] keys;
+        int patternCount;
+        int learnedCount;
+        synchronized (this)
+        {
+            int count = getKeyCount();
+            int slots = Integer.highestOneBit(Math.max(count, 16) * 2) * 2;
+            keys = new long[slots];
+            if (m_mapped != null)
+            {
+                for (int i = 0; i < m_mapped.capacity(); i++)
+                    insert(keys, m_mapped.get(i));
+            }
+            long[] learned = m_learned;
+            for (int i = 0; i < learned.length; i++)
+                insert(keys, learned[i]);
+            patternCount = m_mappedCount + m_learnedCount;
+            learnedCount = m_learnedCount;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(keys.length);
+            output.writeInt(patternCount);
+            for (int i = 0; i < keys.length; i++)
+                output.writeLong(keys[i]);
+        }
+        finally
+        {
+            output.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            file.delete();
+            if (!temp.renameTo(file))
+                throw new IOException("Can't rename " + temp + " to " + file);
+        }
+        synchronized (this)
+        {
+            m_savedCount = learnedCount;
+        }
+    }
+
+    /**
+     * @return The number of patterns, mapped and learned.
+     */
+    public synchronized int getPatternCount()
+    {
+        return m_mappedCount + m_learnedCount;
+    }
+
+    /**
+     * @return The number of patterns learned since the database was opened.
+     */
+    public synchronized int getLearnedCount()
+    {
+        return m_learnedCount;
+    }
+
+    /**
+     * Check whether a box is part of a known deadlock pattern: look up every
+     * window which contains it.
+     *
+     * @param board The board.
+     * @param box The box square - typically, the one just pushed.
+     * @return true if a window around the box is a deadlock pattern.
+     */
+    public boolean isDeadlocked(Board board, int box)
+    {
+        int width = board.getBoardWidth();
+        int boxX = box % width;
+        int boxY = box / width;
+        for (int top = boxY - SIZE + 1; top <= boxY; top++)
+        {
+            for (int left = boxX - SIZE + 1; left <= boxX; left++)
+            {
+                if (contains(getKey(board, left, top)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like isDeadlocked(), but the windows with the box near their middle,
+     * which aren't known yet, are proved (or disproved) on the way, and the
+     * deadlocked ones are learned.
+     *
+     * @param board The board.
+     * @param box The box square.
+     * @return true if a window around the box is a deadlock pattern.
+     */
+    public boolean learn(Board board, int box)
+    {
+        if (isDeadlocked(board, box))
+            return true;
+
+        int width = board.getBoardWidth();
+        int boxX = box % width;
+        int boxY = box / width;
+        for (int top = boxY - 2; top <= boxY - 1; top++)
+        {
+            for (int left = boxX - 2; left <= boxX - 1; left++)
+            {
+                long key = getKey(board, left, top);
+                if (isLive(key))
+                    continue;
+                if (m_provers.get().prove(key))
+                {
+                    add(key);
+                    return true;
+                }
+                addLive(key);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method - build the key of a window.
+     */
+    private static long getKey(Board board, int left, int top)
+    {
+        long key = 0;
+        for (int y = SIZE - 1; y >= 0; y--)
+        {
+            for (int x = SIZE - 1; x >= 0; x--)
+            {
+                byte square = board.getSquare(left + x, top + y);
+                int code;
+                if (BoardSquare.isWall(square) ||
+                    !BoardSquare.isInsideBoard(square))
+                    code = WALL;
+                else if (BoardSquare.hasBox(square))
+                    code = BoardSquare.isTarget(square) ? BOX_ON_TARGET : BOX;
+                else
+                    code = BoardSquare.isTarget(square) ? TARGET : FLOOR;
+                key = (key << CODE_BITS) | code;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Helper method - get the code of a window square from a key.
+     */
+    private static int getCode(long key, int cell)
+    {
+        return (int)(key >>> (cell * CODE_BITS)) & ((1 << CODE_BITS) - 1);
+    }
+
+    /**
+     * Helper method - check whether a key is a known pattern.
+     */
+    private boolean contains(long key)
+    {
+        if (key == 0)
+            return false;
+        if (m_mapped != null && find(m_mapped, key))
+            return true;
+        return find(m_learned, key);
+    }
+
+    /**
+     * Helper method - check whether a window is known not to be deadlocked.
+     */
+    private boolean isLive(long key)
+    {
+        return m_liveWindows[slot(key, LIVE_WINDOW_SLOTS)] == key;
+    }
+
+    /**
+     * Helper method - remember a window which isn't deadlocked.
+     */
+    private void addLive(long key)
+    {
+        m_liveWindows[slot(key, LIVE_WINDOW_SLOTS)] = key;
+    }
+
+    /**
+     * Helper method - learn a pattern, under all its symmetries. The keys
+     * are added to a copy of the learned table, which then replaces it, so
+     * lookups never see a table being changed.
+     */
+    private synchronized void add(long key)
+    {
+        if (find(m_learned, key))
+            return;
+        int size = m_learned.length;
+        if ((m_learnedKeys + SYMMETRIES.length) * 2 > size)
+            size *= 2;
+        long[] learned;
+        if (size == m_learned.length)
+        {
+            learned = m_learned.clone();
+        }
+        else
+        {
+            learned = new long[size];
+            for (int i = 0; i < m_learned.length; i++)
+                insert(learned, m_learned[i]);
+        }
+        for (int s = 0; s < SYMMETRIES.length; s++)
+        {
+            if (insert(learned, transform(key, SYMMETRIES[s])))
+                m_learnedKeys++;
+        }
+        m_learned = learned;
+        m_learnedCount++;
+    }
+
+    /**
+     * Helper method - the number of keys stored, mapped and learned.
+     */
+    private int getKeyCount()
+    {
+        return m_mappedCount * SYMMETRIES.length + m_learnedKeys;
+    }
+
+    /**
+     * Helper method - the first slot to probe for a key.
+     */
+    private static int slot(long key, int slots)
+    {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (slots - 1);
+    }
+
+    /**
+     * Helper method - look a key up in a slot array.
+     */
+    private static boolean find(long[] slots, long key)
+    {
+        for (int i = slot(key, slots.length); ; i = (i + 1) & (slots.length - 1))
+        {
+            if (slots[i] == key)
+                return true;
+            if (slots[i] == 0)
+                return false;
+        }
+    }
+
+    /**
+     * Helper method - look a key up in the mapped slots. A corrupt file may
+     * have no empty slot, so the probe stops after visiting every slot.
+     */
+    private static boolean find(LongBuffer slots, long key)
+    {
+        int capacity = slots.capacity();
+        int mask = capacity - 1;
+        int i = slot(key, capacity);
+        for (int probes = 0; probes < capacity; probes++)
+        {
+            long slotKey = slots.get(i);
+            if (slotKey == key)
+                return true;
+            if (slotKey == 0)
+                return false;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method - add a key to a slot array, which must have room.
+     *
+     * @return true if it wasn't there already.
+     */
+    private static boolean insert(long[] slots, long key)
+    {
+        if (key == 0)
+            return false;
+        for (int i = slot(key, slots.length); ; i = (i + 1) & (slots.length - 1))
+        {
+            if (slots[i] == key)
+                return false;
+            if (slots[i] == 0)
+            {
+                slots[i] = key;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Helper method - the window square permutations of the 8 symmetries
+     * of the square: 4 rotations, each with and without a mirror.
+     */
+    private static int[][] createSymmetries()
+    {
+        int[][] symmetries = new int[8][CELLS];
+        for (int s = 0; s < 8; s++)
+        {
+            for (int y = 0; y < SIZE; y++)
+            {
+                for (int x = 0; x < SIZE; x++)
+                {
+                    int sourceX = x;
+                    int sourceY = y;
+                    for (int r = 0; r < (s & 3); r++)
+                    {
+                        int rotatedX = SIZE - 1 - sourceY;
+                        sourceY = sourceX;
+                        sourceX = rotatedX;
+                    }
+                    if (s >= 4)
+                        sourceX = SIZE - 1 - sourceX;
+                    symmetries[s][y * SIZE + x] = sourceY * SIZE + sourceX;
+                }
+            }
+        }
+        return symmetries;
+    }
+
+    /**
+     * Helper method - apply a symmetry to a key.
+     */
+    private static long transform(long key, int[] symmetry)
+    {
+        long result = 0;
+        for (int cell = CELLS - 1; cell >= 0; cell--)
+            result = (result << CODE_BITS) | getCode(key, symmetry[cell]);
+        return result;
+    }
+
+    /**
+     * A thread's proof buffers, reused between proofs.
+     */
+    private static class Prover
+    {
+        private final ProofGrid m_grid = new ProofGrid();
+        private final ProofStates m_seen = new ProofStates(MAX_PROOF_STATES);
+        private final IntQueue m_queue = new IntQueue(64);
+
+        /**
+         * Prove a window deadlocked. The window is searched on a grid with
+         * a ring of free floor around it, over (boxes, player area) states,
+         * from every player area at once; the window is deadlocked if no
+         * state has every box left on a target.
+         *
+         * @return true if the window is deadlocked.
+         */
+        boolean prove(long key)
+        {
+            int boxes = 0;
+            int targets = 0;
+            int walls = 0;
+            for (int cell = 0; cell < CELLS; cell++)
+            {
+                int code = getCode(key, cell);
+                if (code == WALL)
+                    walls |= 1 << cell;
+                if (code == TARGET || code == BOX_ON_TARGET)
+                    targets |= 1 << cell;
+                if (code == BOX || code == BOX_ON_TARGET)
+                    boxes |= 1 << cell;
+            }
+            // A window without walls can only be deadlocked by boxes freezing
+            // each other, which the board checks already.
+            if ((boxes & ~targets) == 0 || Integer.bitCount(boxes) < 2 ||
+                walls == 0)
+                return false;
+
+            ProofGrid grid = m_grid;
+            ProofStates seen = m_seen;
+            IntQueue queue = m_queue;
+            grid.setWalls(walls);
+            seen.clear();
+            queue.clear();
+            for (int pos = 0; pos < ProofGrid.CELLS; pos++)
+            {
+                if (!grid.isFree(boxes, pos))
+                    continue;
+                int state = grid.state(boxes, pos);
+                if (seen.add(state))
+                    queue.add(state);
+            }
+
+            while (!queue.isEmpty())
+            {
+                if (seen.isFull())
+                    return false;
+                int state = queue.remove();
+                int stateBoxes = state >>> ProofGrid.PLAYER_BITS;
+                if ((stateBoxes & ~targets) == 0)
+                    return false;
+                long area = grid.fill(stateBoxes,
+                    state & ((1 << ProofGrid.PLAYER_BITS) - 1));
+                for (int cell = 0; cell < CELLS; cell++)
+                {
+                    if ((stateBoxes & (1 << cell)) == 0)
+                        continue;
+                    int pos = ProofGrid.toGrid(cell);
+                    for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+                    {
+                        int offset = ProofGrid.getDirOffset(dir);
+                        if ((area & (1L << (pos - offset))) == 0)
+                            continue;
+                        int target = pos + offset;
+                        int newBoxes = stateBoxes & ~(1 << cell);
+                        int targetCell = ProofGrid.toCell(target);
+                        if (targetCell >= 0)
+                        {
+                            if ((walls & (1 << targetCell)) != 0 ||
+                                (stateBoxes & (1 << targetCell)) != 0)
+                                continue;
+                            newBoxes |= 1 << targetCell;
+                        }
+                        int newState = grid.state(newBoxes, pos);
+                        if (seen.add(newState))
+                            queue.add(newState);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The grid of a proof: the window, with a ring of free floor around it.
+     * It has 36 squares, so sets of squares are longs, and the player's
+     * area is filled with bit operations.
+     */
+    private static class ProofGrid
+    {
+        final static int GRID = SIZE + 2;
+        final static int CELLS = GRID * GRID;
+        final static int PLAYER_BITS = 6;
+
+        /**
+         * All grid squares, and all but those of the left and right columns.
+         */
+        private final static long ALL = (1L << CELLS) - 1;
+        private final static long NOT_LEFT = ALL & ~columnMask(0);
+        private final static long NOT_RIGHT = ALL & ~columnMask(GRID - 1);
+
+        private int m_walls;
+        private long m_wallSquares;
+
+        /**
+         * Set the window's walls.
+         */
+        void setWalls(int walls)
+        {
+            m_walls = walls;
+            m_wallSquares = toSquares(walls);
+        }
+
+        /**
+         * Convert a window square to a grid square.
+         */
+        static int toGrid(int cell)
+        {
+            return (cell / SIZE + 1) * GRID + cell % SIZE + 1;
+        }
+
+        /**
+         * Convert a grid square to a window square, or -1 for the ring.
+         */
+        static int toCell(int pos)
+        {
+            int x = pos % GRID - 1;
+            int y = pos / GRID - 1;
+            return (x < 0 || x >= SIZE || y < 0 || y >= SIZE) ? -1 :
+                y * SIZE + x;
+        }
+
+        static int getDirOffset(int dir)
+        {
+            return Move.getYDelta(dir) * GRID + Move.getXDelta(dir);
+        }
+
+        /**
+         * Check whether the player may stand on a grid square.
+         */
+        boolean isFree(int boxes, int pos)
+        {
+            int cell = toCell(pos);
+            return cell < 0 || ((m_walls | boxes) & (1 << cell)) == 0;
+        }
+
+        /**
+         * Fill the player's area from a square.
+         *
+         * @return The area, one bit per grid square.
+         */
+        long fill(int boxes, int start)
+        {
+            long free = ALL & ~m_wallSquares & ~toSquares(boxes);
+            long area = 1L << start;
+            while (true)
+            {
+                long grown = (area | ((area << 1) & NOT_LEFT) |
+                    ((area >>> 1) & NOT_RIGHT) | (area << GRID) |
+                    (area >>> GRID)) & free;
+                if (grown == area)
+                    return area;
+                area = grown;
+            }
+        }
+
+        /**
+         * Build a state: the boxes, and the top-left square of the player's
+         * area.
+         */
+        int state(int boxes, int player)
+        {
+            return (boxes << PLAYER_BITS) |
+                Long.numberOfTrailingZeros(fill(boxes, player));
+        }
+
+        /**
+         * Helper method - the grid squares of a set of window squares.
+         */
+        private static long toSquares(int cells)
+        {
+            long squares = 0;
+            for (int rest = cells; rest != 0; rest &= rest - 1)
+                squares |= 1L << toGrid(Integer.numberOfTrailingZeros(rest));
+            return squares;
+        }
+
+        /**
+         * Helper method - the grid squares of a column.
+         */
+        private static long columnMask(int x)
+        {
+            long squares = 0;
+            for (int y = 0; y < GRID; y++)
+                squares |= 1L << (y * GRID + x);
+            return squares;
+        }
+    }
+
+    /**
+     * The set of states seen by a proof: open addressing over an int array,
+     * with room for a fixed number of states.
+     */
+    private static class ProofStates
+    {
+        private final int[] m_slots;
+        private final int m_capacity;
+        private int m_size;
+
+        ProofStates(int capacity)
+        {
+            m_slots = new int[Integer.highestOneBit(capacity) * 4];
+            m_capacity = capacity;
+        }
+
+        /**
+         * Add a state.
+         *
+         * @return true if it wasn't there already.
+         */
+        boolean add(int state)
+        {
+            // States are stored plus one, so 0 is an empty slot.
+            int key = state + 1;
+            int mask = m_slots.length - 1;
+            for (int i = (key * 0x9E3779B1) >>> 16 & mask; ; i = (i + 1) & mask)
+            {
+                if (m_slots[i] == key)
+                    return false;
+                if (m_slots[i] == 0)
+                {
+                    m_slots[i] = key;
+                    m_size++;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Empty the set.
+         */
+        void clear()
+        {
+            Arrays.fill(m_slots, 0);
+            m_size = 0;
+        }
+
+        /**
+         * @return true if the set holds as many states as a proof may search.
+         */
+        boolean isFull()
+        {
+            return m_size > m_capacity;
+        }
+    }
+}
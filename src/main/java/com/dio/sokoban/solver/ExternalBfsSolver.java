@@ -0,0 +1,646 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Bits;
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.Reachability;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A breadth-first solver over pushes whose search isn't limited by the
+ * heap: the positions of each layer are kept in files (see RecordFile). The
+ * next layer is generated in runs the size of the memory budget, each
+ * sorted and written aside, and the runs are then merged with the earlier
+ * layers in one pass, which drops the positions seen before - the layers
+ * are the visited set, so it's never written out on its own. Since layers are searched in order, the solution
+ * found has the fewest pushes possible.
+ *
+ * No parent links are kept. Once a solved position is reached, the path
+ * back to the start is found a layer at a time: the position whose pull
+ * leads into the previous layer's file is on it. This solver is meant for
+ * analysis runs of hard levels, with large budgets and a fast disk, not for
+ * the device.
+ */
+public class ExternalBfsSolver extends Solver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of nodes between budget charges.
+     */
+    private final static int CHARGE_INTERVAL = 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The directory the search files are created in.
+     */
+    private File m_workDirectory =
+        new File(System.getProperty("java.io.tmpdir"));
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Set the directory to create the search files in. Each solve uses a
+     * directory of its own in it, which is deleted when it's done. The
+     * memory budget (see setTableMemory()) is the size of the runs sorted
+     * in memory.
+     */
+    public void setWorkDirectory(File workDirectory)
+    {
+        m_workDirectory = workDirectory;
+    }
+
+    /**
+     * @return The directory the search files are created in.
+     */
+    public File getWorkDirectory()
+    {
+        return m_workDirectory;
+    }
+
+    @Override
+    public Solution solve(Board board)
+    {
+        long startTime = System.currentTimeMillis();
+        SearchBudget budget = startRun();
+        if (board.isSolved())
+            return new Solution(Solution.SOLVED, "", 0, 0);
+
+        Search search;
+        try
+        {
+            search = new Search(board.fork(), budget, getDeadlockPatterns(),
+                getTableMemory(), createDirectory());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Can't create the search files",
+                e);
+        }
+
+        int status;
+        String lurd = null;
+        try
+        {
+            status = search.run();
+            if (status == Solution.SOLVED)
+                lurd = search.toLurd(board);
+            else if (status != Solution.UNSOLVABLE)
+                status = stoppedStatus();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Can't access the search files",
+                e);
+        }
+        finally
+        {
+            search.close();
+        }
+        return createSolution(status, lurd, budget, startTime);
+    }
+
+    /**
+     * Helper method - create the directory of a solve's files.
+     */
+    private File createDirectory() throws IOException
+    {
+        File directory = File.createTempFile("bfs", "", m_workDirectory);
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Can't create " + directory);
+        return directory;
+    }
+
+    /**
+     * The state of one solve. A position is stored as a record of longs:
+     * the top-left square of the player's area, then a bitset of the box
+     * squares, numbered over the squares a box may stand on (the floor
+     * squares which aren't dead, and those boxes start on - some levels
+     * have boxes which never move, walled in on their targets).
+     */
+    private static class Search
+    {
+        private final Board m_board;
+        private final SearchBudget m_budget;
+        private final DeadlockPatterns m_deadlockPatterns;
+        private final File m_directory;
+        private final Reachability m_reachability = new Reachability();
+        private final Reachability m_childReachability = new Reachability();
+
+        /**
+         * The index of each box square, and the square of each index.
+         */
+        private final int[] m_indexOf;
+        private final int[] m_squareOf;
+
+        /**
+         * The number of longs in a record.
+         */
+        private final int m_width;
+
+        /**
+         * The layers searched so far.
+         */
+        private final List<RecordFile> m_layers = new ArrayList<RecordFile>();
+
+        /**
+         * The next layer's run being collected, and the runs written.
+         */
+        private final long[] m_run;
+        private int m_runCount;
+        private final List<RecordFile> m_runs = new ArrayList<RecordFile>();
+
+        /**
+         * The last push of the solution, and the position it's made from.
+         */
+        private long[] m_lastParent;
+        private int m_lastBox;
+        private int m_lastDir;
+
+        private final long[] m_record;
+        private final long[] m_boxes;
+        private int m_fileCount;
+        private int m_unchargedNodes;
+
+        Search(Board board, SearchBudget budget,
+            DeadlockPatterns deadlockPatterns, int memory, File directory)
+        {
+            m_board = board;
+            m_budget = budget;
+            m_deadlockPatterns = deadlockPatterns;
+            m_directory = directory;
+
+            int squareCount = board.getSquareCount();
+            long[] floor = board.getBitBoard().getFloor();
+            long[] startBoxes = board.getBitBoard().getBoxes();
+            m_indexOf = new int[squareCount];
+            int[] squareOf = new int[squareCount];
+            int count = 0;
+            for (int pos = 0; pos < squareCount; pos++)
+            {
+                m_indexOf[pos] = -1;
+                if ((Bits.get(floor, pos) && !board.isDeadSquare(pos)) ||
+                    Bits.get(startBoxes, pos))
+                {
+                    m_indexOf[pos] = count;
+                    squareOf[count++] = pos;
+                }
+            }
+            m_squareOf = new int[count];
+            System.arraycopy(squareOf, 0, m_squareOf, 0, count);
+
+            m_width = 1 + (count + 63) / 64;
+            m_record = new long[m_width];
+            m_boxes = board.getBitBoard().createSet();
+            m_run = new long[Math.max(1, memory / (m_width * 8)) * m_width];
+        }
+
+        /**
+         * Search a layer at a time, until a solved position is reached, the
+         * budget runs out, or there's nothing left to search.
+         *
+         * @return SOLVED, UNSOLVABLE, or BUDGET_EXCEEDED if the search was
+         * stopped.
+         */
+        int run() throws IOException
+        {
+            int status = search();
+            m_budget.charge(m_unchargedNodes);
+            m_unchargedNodes = 0;
+            return status;
+        }
+
+        /**
+         * Helper method for run - the search itself.
+         */
+        private int search() throws IOException
+        {
+            if (!encode(m_board, m_record))
+                return Solution.UNSOLVABLE;
+            RecordFile start = newFile();
+            RecordFile.Writer writer = start.openWriter();
+            writer.add(m_record, 0);
+            writer.close();
+            m_layers.add(start);
+
+            while (true)
+            {
+                RecordFile layer = m_layers.get(m_layers.size() - 1);
+                RecordFile.Reader reader = layer.openReader();
+                try
+                {
+                    while (reader.next())
+                    {
+                        if (++m_unchargedNodes == CHARGE_INTERVAL)
+                        {
+                            m_unchargedNodes = 0;
+                            if (!m_budget.charge(CHARGE_INTERVAL))
+                                return Solution.BUDGET_EXCEEDED;
+                        }
+                        else if (m_budget.isStopped())
+                        {
+                            return Solution.BUDGET_EXCEEDED;
+                        }
+                        if (expand(reader.getRecord()))
+                            return Solution.SOLVED;
+                    }
+                }
+                finally
+                {
+                    reader.close();
+                }
+
+                writeRun();
+                RecordFile next = mergeRuns();
+                if (next == null)
+                    return Solution.BUDGET_EXCEEDED;
+                if (next.getCount() == 0)
+                {
+                    next.delete();
+                    return Solution.UNSOLVABLE;
+                }
+                m_layers.add(next);
+            }
+        }
+
+        /**
+         * Turn the solution into LURD notation: walk back from the last
+         * push's position, a layer at a time, to the start.
+         */
+        String toLurd(Board start) throws IOException
+        {
+            int count = m_layers.size();
+            int[] boxes = new int[count];
+            int[] dirs = new int[count];
+            boxes[count - 1] = m_lastBox;
+            dirs[count - 1] = m_lastDir;
+
+            long[] record = m_lastParent;
+            for (int layer = count - 1; layer > 0; layer--)
+            {
+                decode(record);
+                if (!findPull(m_layers.get(layer - 1), boxes, dirs, layer - 1))
+                    return null;
+                record = m_record.clone();
+            }
+            return Solver.toLurd(start, boxes, dirs, count);
+        }
+
+        /**
+         * Delete the search files.
+         */
+        void close()
+        {
+            for (int i = 0; i < m_layers.size(); i++)
+                m_layers.get(i).delete();
+            for (int i = 0; i < m_runs.size(); i++)
+                m_runs.get(i).delete();
+            m_directory.delete();
+        }
+
+        /**
+         * Helper method - add the positions one push away from a position
+         * to the next layer's run.
+         *
+         * @return true if one of them is solved.
+         */
+        private boolean expand(long[] record) throws IOException
+        {
+            decode(record);
+            m_reachability.compute(m_board);
+            int player = m_board.getPlayerPos();
+            for (int i = 0; i < m_reachability.getPushCount(); i++)
+            {
+                int box = m_reachability.getPushBox(i);
+                int dir = m_reachability.getPushDir(i);
+                int target = box + m_board.getDirOffset(dir);
+                if (m_board.isDeadSquare(target))
+                    continue;
+                m_board.placePlayer(box - m_board.getDirOffset(dir));
+                int step = m_board.step(dir);
+                if (step == Move.STEP_ILLEGAL)
+                {
+                    m_board.placePlayer(player);
+                    continue;
+                }
+                if (m_board.isSolved())
+                {
+                    m_lastParent = record.clone();
+                    m_lastBox = box;
+                    m_lastDir = dir;
+                    return true;
+                }
+                if (!m_board.isDeadlocked() && (m_deadlockPatterns == null ||
+                    !m_deadlockPatterns.learn(m_board, target)))
+                    addToRun();
+                m_board.undoStep(step);
+                m_board.placePlayer(player);
+            }
+            return false;
+        }
+
+        /**
+         * Helper method for expand - add the board's position to the run,
+         * writing the run out if it's full.
+         */
+        private void addToRun() throws IOException
+        {
+            if (m_runCount * m_width == m_run.length)
+                writeRun();
+            encode(m_board, m_record);
+            System.arraycopy(m_record, 0, m_run, m_runCount * m_width,
+                m_width);
+            m_runCount++;
+        }
+
+        /**
+         * Helper method - sort the run, and write it to a file of its own.
+         */
+        private void writeRun() throws IOException
+        {
+            if (m_runCount == 0)
+                return;
+            int count = RecordFile.sortUnique(m_run, m_runCount, m_width);
+            RecordFile run = newFile();
+            RecordFile.Writer writer = run.openWriter();
+            for (int i = 0; i < count; i++)
+                writer.add(m_run, i * m_width);
+            writer.close();
+            m_runs.add(run);
+            m_runCount = 0;
+        }
+
+        /**
+         * Helper method - merge the runs into the next layer: the positions
+         * in them which aren't in an earlier layer. Merging with large
+         * layers takes a while, so the budget is checked on the way too.
+         *
+         * @return The next layer, or null if the search was stopped.
+         */
+        private RecordFile mergeRuns() throws IOException
+        {
+            int width = m_width;
+            MergeReader runs = new MergeReader(m_runs, width);
+            MergeReader visited = new MergeReader(m_layers, width);
+            RecordFile layer = newFile();
+            RecordFile.Writer writer = layer.openWriter();
+            boolean hasOld = visited.next();
+            long[] old = visited.getRecord();
+            long[] last = new long[width];
+            boolean hasLast = false;
+            int merged = 0;
+            while (runs.next())
+            {
+                if (++merged == CHARGE_INTERVAL)
+                {
+                    merged = 0;
+                    if (m_budget.isStopped())
+                    {
+                        runs.close();
+                        visited.close();
+                        writer.close();
+                        layer.delete();
+                        return null;
+                    }
+                }
+                long[] record = runs.getRecord();
+                if (hasLast &&
+                    RecordFile.compare(record, 0, last, 0, width) == 0)
+                    continue;
+                System.arraycopy(record, 0, last, 0, width);
+                hasLast = true;
+                while (hasOld &&
+                    RecordFile.compare(old, 0, record, 0, width) < 0)
+                    hasOld = visited.next();
+                if (!hasOld ||
+                    RecordFile.compare(old, 0, record, 0, width) != 0)
+                    writer.add(record, 0);
+            }
+            runs.close();
+            visited.close();
+            writer.close();
+
+            for (int i = 0; i < m_runs.size(); i++)
+                m_runs.get(i).delete();
+            m_runs.clear();
+            return layer;
+        }
+
+        /**
+         * Helper method for toLurd - find the pull from the board's position
+         * which leads to a position in the previous layer. The pull is
+         * recorded as a push in forward terms, and the position it leads to
+         * is left in m_record.
+         *
+         * @return true if there was one.
+         */
+        private boolean findPull(RecordFile previous, int[] boxes, int[] dirs,
+            int index) throws IOException
+        {
+            m_reachability.compute(m_board);
+            int player = m_board.getPlayerPos();
+            for (int pos = 0; pos < m_board.getSquareCount(); pos++)
+            {
+                if (!m_reachability.isReachable(pos))
+                    continue;
+                for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+                {
+                    if (!canPull(pos, dir))
+                        continue;
+                    m_board.placePlayer(pos);
+                    m_board.undoStep(dir | Move.STEP_PUSH);
+                    boolean found = encode(m_board, m_record) &&
+                        previous.contains(m_record);
+                    m_board.step(dir);
+                    m_board.placePlayer(player);
+                    if (found)
+                    {
+                        boxes[index] = pos;
+                        dirs[index] = dir;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Helper method for findPull - check whether the player, standing on
+         * a square, can pull the box in the given direction from it.
+         */
+        private boolean canPull(int pos, int dir)
+        {
+            int box = m_board.getNeighbour(pos, dir);
+            int back = m_board.getNeighbour(pos, Move.getOppositeDir(dir));
+            if (box < 0 || back < 0)
+                return false;
+            byte backSquare = m_board.getSquare(back);
+            return BoardSquare.hasBox(m_board.getSquare(box)) &&
+                !BoardSquare.isWall(backSquare) &&
+                !BoardSquare.hasBox(backSquare) &&
+                m_board.isInsideBoard(back);
+        }
+
+        /**
+         * Helper method - encode a board's position as a record.
+         *
+         * @return false if a box is on a square no box may stand on - a
+         * dead square it didn't start on.
+         */
+        private boolean encode(Board board, long[] record)
+        {
+            m_childReachability.compute(board);
+            record[0] = m_childReachability.getTopLeft();
+            for (int i = 1; i < m_width; i++)
+                record[i] = 0;
+
+            long[] boxes = board.getBitBoard().getBoxes();
+            for (int word = 0; word < boxes.length; word++)
+            {
+                long bits = boxes[word];
+                while (bits != 0)
+                {
+                    int pos = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int index = m_indexOf[pos];
+                    if (index < 0)
+                        return false;
+                    record[1 + (index >>> 6)] |= 1L << index;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Helper method - set the board to a record's position.
+         */
+        private void decode(long[] record)
+        {
+            for (int i = 0; i < m_boxes.length; i++)
+                m_boxes[i] = 0;
+            for (int word = 1; word < m_width; word++)
+            {
+                long bits = record[word];
+                while (bits != 0)
+                {
+                    int index = ((word - 1) << 6) +
+                        Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    Bits.set(m_boxes, m_squareOf[index]);
+                }
+            }
+            m_board.setBoxes(m_boxes);
+            m_board.placePlayer((int)record[0]);
+        }
+
+        /**
+         * Helper method - create a new file in the solve's directory.
+         */
+        private RecordFile newFile()
+        {
+            return new RecordFile(new File(m_directory,
+                String.valueOf(m_fileCount++)), m_width);
+        }
+    }
+
+    /**
+     * Reads the records of several sorted files as one sorted sequence.
+     */
+    private static class MergeReader
+    {
+        private final PriorityQueue<RecordFile.Reader> m_queue;
+        private final long[] m_record;
+
+        MergeReader(List<RecordFile> files, final int width)
+            throws IOException
+        {
+            m_record = new long[width];
+            m_queue = new PriorityQueue<RecordFile.Reader>(
+                Math.max(1, files.size()),
+                new Comparator<RecordFile.Reader>()
+                {
+                    public int compare(RecordFile.Reader a,
+                        RecordFile.Reader b)
+                    {
+                        return RecordFile.compare(a.getRecord(), 0,
+                            b.getRecord(), 0, width);
+                    }
+                });
+            for (int i = 0; i < files.size(); i++)
+            {
+                RecordFile.Reader reader = files.get(i).openReader();
+                if (reader.next())
+                    m_queue.add(reader);
+                else
+                    reader.close();
+            }
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return true if there was one; it's then in getRecord().
+         */
+        boolean next() throws IOException
+        {
+            if (m_queue.isEmpty())
+                return false;
+            RecordFile.Reader reader = m_queue.poll();
+            System.arraycopy(reader.getRecord(), 0, m_record, 0,
+                m_record.length);
+            if (reader.next())
+                m_queue.add(reader);
+            else
+                reader.close();
+            return true;
+        }
+
+        /**
+         * @return The last record read. The array is reused by next().
+         */
+        long[] getRecord()
+        {
+            return m_record;
+        }
+
+        void close() throws IOException
+        {
+            while (!m_queue.isEmpty())
+                m_queue.poll().close();
+        }
+    }
+}
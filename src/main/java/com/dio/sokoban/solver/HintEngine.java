@@ -0,0 +1,358 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.Reachability;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds hints - the next push to make - in the background. A hint request
+ * solves a fork of the board on the engine's own thread, with a small
+ * budget, and reports the first push of the solution to a listener. A new
+ * request, or cancel(), stops the search in progress, so a player who moves
+ * on never waits for an old one.
+ *
+ * Hints are cached by position (the boxes, and the player's area), and a
+ * solution gives the hint of every position along it, so asking again -
+ * or asking after following a hint - is usually answered at once. Position
+ * keys don't tell levels apart, so the cache only holds the hints of the
+ * level set by setLevel().
+ */
+public class HintEngine
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The node budget of a hint search.
+     */
+    public final static long DEFAULT_NODE_BUDGET = 500000;
+
+    /**
+     * The time budget of a hint search, in milliseconds.
+     */
+    public final static long DEFAULT_TIME_BUDGET = 10000;
+
+    /**
+     * The largest number of positions whose hints are cached.
+     */
+    private final static int MAX_CACHED_HINTS = 4096;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The thread the searches run on.
+     */
+    private final ExecutorService m_executor =
+        Executors.newSingleThreadExecutor(new SolverThreadFactory());
+
+    /**
+     * The cached hints, by position key, least recently used first.
+     */
+    private final Map<Long, Hint> m_cache =
+        new LinkedHashMap<Long, Hint>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Hint> eldest)
+            {
+                return size() > MAX_CACHED_HINTS;
+            }
+        };
+
+    /**
+     * The level the cached hints are of, and the number of times it was
+     * changed - a search of an older level doesn't cache its hints.
+     */
+    private int m_level = -1;
+    private int m_generation;
+
+    /**
+     * The reachability of the positions hints are asked for.
+     */
+    private final Reachability m_reachability = new Reachability();
+
+    /**
+     * The deadlock pattern database, or null.
+     */
+    private volatile DeadlockPatterns m_deadlockPatterns;
+
+    /**
+     * The solver of the search in progress, and its task.
+     */
+    private Solver m_solver;
+    private Future<?> m_task;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Set the deadlock pattern database the searches use, or null.
+     */
+    public void setDeadlockPatterns(DeadlockPatterns deadlockPatterns)
+    {
+        m_deadlockPatterns = deadlockPatterns;
+    }
+
+    /**
+     * Set the level hints are asked for. If it's another level, the cached
+     * hints are dropped, and the search in progress is stopped.
+     *
+     * @param level The level.
+     */
+    public void setLevel(int level)
+    {
+        synchronized (m_cache)
+        {
+            if (level == m_level)
+                return;
+            m_level = level;
+            m_generation++;
+            m_cache.clear();
+        }
+        cancel();
+    }
+
+    /**
+     * Ask for the hint of a board's position. A cached hint is reported
+     * before this returns, on the calling thread; otherwise the search in
+     * progress is stopped, and a new one is started, whose result is
+     * reported on the engine's thread. Should be called from one thread.
+     *
+     * @param board The board. It's not changed, and may be played on once
+     * this returns.
+     * @param listener The listener to report the hint to.
+     */
+    public void requestHint(Board board, final Listener listener)
+    {
+        final long key = getKey(board);
+        Hint cached;
+        final int generation;
+        synchronized (m_cache)
+        {
+            cached = m_cache.get(Long.valueOf(key));
+            generation = m_generation;
+        }
+        if (cached != null)
+        {
+            cancel();
+            listener.hintReady(cached);
+            return;
+        }
+
+        final Board start = board.fork();
+        final Solver solver = new IdaStarSolver();
+        // Without macro moves the search tries every push, so an UNSOLVABLE
+        // result is a proof, and can be shown and cached.
+        solver.setMacroMoves(false);
+        solver.setNodeBudget(DEFAULT_NODE_BUDGET);
+        solver.setTimeBudget(DEFAULT_TIME_BUDGET);
+        solver.setDeadlockPatterns(m_deadlockPatterns);
+        synchronized (this)
+        {
+            cancel();
+            m_solver = solver;
+            m_task = m_executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    Hint hint = search(start, key, solver, generation);
+                    if (!solver.isCancelled())
+                        listener.hintReady(hint);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop the search in progress, if any. Its hint isn't reported - unless
+     * it's reported at this very moment, so listeners should check that a
+     * hint's key is still that of the position they show.
+     */
+    public synchronized void cancel()
+    {
+        if (m_solver != null)
+        {
+            m_solver.cancel();
+            m_task.cancel(false);
+            m_solver = null;
+            m_task = null;
+        }
+    }
+
+    /**
+     * Stop the search in progress, and the engine's thread. The engine can't
+     * be used afterwards.
+     */
+    public void shutdown()
+    {
+        cancel();
+        m_executor.shutdownNow();
+    }
+
+    /**
+     * Get the key of a board's position, as hints report it. Should be
+     * called from the thread which asks for hints.
+     */
+    public long getKey(Board board)
+    {
+        m_reachability.compute(board);
+        return board.stateHash(m_reachability.getTopLeft());
+    }
+
+    /**
+     * Helper method - the search of a request, run on the engine's thread.
+     * The hints of all positions along the solution are cached.
+     *
+     * @param generation The level generation the request was made in.
+     * @return The hint of the start position.
+     */
+    private Hint search(Board start, long key, Solver solver, int generation)
+    {
+        Solution solution = solver.solve(start);
+        if (solution.getStatus() == Solution.UNSOLVABLE)
+        {
+            Hint hint = new Hint(key, Hint.UNSOLVABLE, -1, -1);
+            cache(hint, generation);
+            return hint;
+        }
+        if (!solution.isSolved() || solution.getLurd().length() == 0)
+            return new Hint(key, Hint.NOT_FOUND, -1, -1);
+
+        Board board = start.fork();
+        Reachability reachability = new Reachability();
+        String lurd = solution.getLurd();
+        Hint first = null;
+        for (int i = 0; i < lurd.length(); i++)
+        {
+            int step = Move.fromLurd(lurd.charAt(i));
+            int dir = Move.getStepDir(step);
+            if (Move.isPush(step))
+            {
+                reachability.compute(board);
+                Hint hint = new Hint(
+                    board.stateHash(reachability.getTopLeft()), Hint.FOUND,
+                    board.getPlayerPos() + board.getDirOffset(dir), dir);
+                if (first == null)
+                    first = hint;
+                cache(hint, generation);
+            }
+            board.step(dir);
+        }
+        return first;
+    }
+
+    /**
+     * Helper method - cache a hint, unless the level changed since it was
+     * asked for.
+     */
+    private void cache(Hint hint, int generation)
+    {
+        synchronized (m_cache)
+        {
+            if (generation == m_generation)
+                m_cache.put(Long.valueOf(hint.getKey()), hint);
+        }
+    }
+
+    /**
+     * Receives hints.
+     */
+    public interface Listener
+    {
+        /**
+         * A hint is ready. Called on the engine's thread, or, for a cached
+         * hint, on the thread which asked for it.
+         */
+        void hintReady(Hint hint);
+    }
+
+    /**
+     * The hint of a position.
+     */
+    public static class Hint
+    {
+        /**
+         * The hint statuses: a push was found, the position can't be solved,
+         * or the search ran out of budget.
+         */
+        public final static int FOUND = 0;
+        public final static int UNSOLVABLE = 1;
+        public final static int NOT_FOUND = 2;
+
+        private final long m_key;
+        private final int m_status;
+        private final int m_box;
+        private final int m_dir;
+
+        Hint(long key, int status, int box, int dir)
+        {
+            m_key = key;
+            m_status = status;
+            m_box = box;
+            m_dir = dir;
+        }
+
+        /**
+         * @return The key of the position the hint is for.
+         */
+        public long getKey()
+        {
+            return m_key;
+        }
+
+        /**
+         * @return The hint status - one of the status constants.
+         */
+        public int getStatus()
+        {
+            return m_status;
+        }
+
+        /**
+         * @return The square of the box to push, or -1.
+         */
+        public int getBox()
+        {
+            return m_box;
+        }
+
+        /**
+         * @return The direction to push it in, or -1.
+         */
+        public int getDir()
+        {
+            return m_dir;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.PushPlanner;
+import com.dio.sokoban.Reachability;
+
+/**
+ * One thread's IDA* depth-first search over pushes (see IdaStarSolver). The
+ * search runs on its own board, and records the pushes of the current path,
+ * which after a successful search is the solution.
+ */
+class IdaStarSearch
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The search result of a node on the solution path.
+     */
+    final static int FOUND = -1;
+
+    /**
+     * The search result of a search which was stopped.
+     */
+    final static int ABORTED = -2;
+
+    /**
+     * The search result of a node with no solution below it.
+     */
+    final static int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * The number of nodes between budget charges.
+     */
+    private final static int CHARGE_INTERVAL = 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board being searched.
+     */
+    private final Board m_board;
+
+    /**
+     * The lower bound calculator.
+     */
+    private final LowerBound m_lowerBound;
+
+    /**
+     * The transposition table.
+     */
+    private final SearchTable m_table;
+
+    /**
+     * The budget.
+     */
+    private final SearchBudget m_budget;
+
+    /**
+     * The level's macro moves, or null if they're not used.
+     */
+    private final MacroMoves m_macros;
+
+    /**
+     * The planner of goal room macros.
+     */
+    private final PushPlanner m_planner = new PushPlanner();
+
+    /**
+     * The push directions of a goal room macro.
+     */
+    private int[] m_macroDirs = new int[0];
+
+    /**
+     * The deadlock pattern database, or null.
+     */
+    private DeadlockPatterns m_deadlockPatterns;
+
+    /**
+     * The corral pruner.
+     */
+    private final CorralPruner m_corralPruner = new CorralPruner();
+
+    /**
+     * A reachability object for every search depth.
+     */
+    private Reachability[] m_reachability = new Reachability[0];
+
+    /**
+     * The lower bound matching of each search depth, to go back to after
+     * each child position.
+     */
+    private LowerBound.State[] m_bounds = new LowerBound.State[0];
+
+    /**
+     * The lower bound matching of a frontier position (see
+     * estimatePush()).
+     */
+    private LowerBound.State m_frontierBound;
+
+    /**
+     * The box squares of the pushes on the current path.
+     */
+    private int[] m_pathBoxes = new int[0];
+
+    /**
+     * The directions of the pushes on the current path.
+     */
+    private int[] m_pathDirs = new int[0];
+
+    /**
+     * The number of pushes on the solution path, once found.
+     */
+    private int m_pathLength;
+
+    /**
+     * The nodes expanded since the last budget charge.
+     */
+    private int m_unchargedNodes;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a search.
+     *
+     * @param board The board to search on. It's changed by the search.
+     * @param distances The push distances of the level.
+     * @param macros The level's macro moves, or null to push one square at
+     * a time.
+     * @param table The transposition table.
+     * @param budget The budget.
+     */
+    IdaStarSearch(Board board, PushDistances distances, MacroMoves macros,
+        SearchTable table, SearchBudget budget)
+    {
+        m_board = board;
+        m_macros = macros;
+        m_lowerBound = new LowerBound(distances);
+        m_table = table;
+        m_budget = budget;
+    }
+
+    /**
+     * @return The board searched on.
+     */
+    Board getBoard()
+    {
+        return m_board;
+    }
+
+    /**
+     * @return The lower bound of the board's current position.
+     */
+    int estimate()
+    {
+        return m_lowerBound.estimate(m_board);
+    }
+
+    /**
+     * Get the lower bound of the position estimate() was last called on,
+     * after one box was pushed. The board should be in the pushed position;
+     * the lower bound still matches the position before the push after
+     * this.
+     *
+     * @param from The square the box was pushed from.
+     * @param to The square it was pushed to.
+     * @return The lower bound of the board's current position.
+     */
+    int estimatePush(int from, int to)
+    {
+        if (m_frontierBound == null)
+            m_frontierBound = m_lowerBound.createState();
+        m_lowerBound.save(m_frontierBound);
+        int estimate = m_lowerBound.update(m_board, from, to);
+        m_lowerBound.restore(m_frontierBound);
+        return estimate;
+    }
+
+    /**
+     * Set the deadlock pattern database to use and learn into, or null.
+     */
+    void setDeadlockPatterns(DeadlockPatterns deadlockPatterns)
+    {
+        m_deadlockPatterns = deadlockPatterns;
+    }
+
+    /**
+     * Set the pushes which led to the board's current position, for searches
+     * which don't start at the level's start position.
+     */
+    void setPath(int[] boxes, int[] dirs, int length)
+    {
+        ensureDepth(length);
+        System.arraycopy(boxes, 0, m_pathBoxes, 0, length);
+        System.arraycopy(dirs, 0, m_pathDirs, 0, length);
+    }
+
+    /**
+     * @return The box squares of the solution's pushes.
+     */
+    int[] getPathBoxes()
+    {
+        return m_pathBoxes;
+    }
+
+    /**
+     * @return The directions of the solution's pushes.
+     */
+    int[] getPathDirs()
+    {
+        return m_pathDirs;
+    }
+
+    /**
+     * @return The number of pushes in the solution.
+     */
+    int getPathLength()
+    {
+        return m_pathLength;
+    }
+
+    /**
+     * Charge the nodes not yet charged to the budget.
+     */
+    void flushNodes()
+    {
+        m_budget.charge(m_unchargedNodes);
+        m_unchargedNodes = 0;
+    }
+
+    /**
+     * Search the board's current position.
+     *
+     * @param pushes The number of pushes made to reach the position.
+     * @param threshold The current iteration's cost threshold.
+     * @return FOUND, ABORTED, or the smallest cost above the threshold
+     * found below this position (INFINITY if none).
+     */
+    int search(int pushes, int threshold)
+    {
+        return search(pushes, threshold, -1, -1);
+    }
+
+    /**
+     * Helper method - search the board's current position, whose lower
+     * bound is updated from the parent position's.
+     *
+     * @param from The square of the box pushed to reach the position from
+     * its parent, or -1 at the root of the search.
+     * @param to The square it was pushed to.
+     */
+    private int search(int pushes, int threshold, int from, int to)
+    {
+        if (++m_unchargedNodes == CHARGE_INTERVAL)
+        {
+            m_unchargedNodes = 0;
+            if (!m_budget.charge(CHARGE_INTERVAL))
+                return ABORTED;
+        }
+        else if (m_budget.isStopped())
+        {
+            return ABORTED;
+        }
+
+        if (m_board.isDeadlocked())
+            return INFINITY;
+        int estimate = (from < 0) ? m_lowerBound.estimate(m_board) :
+            m_lowerBound.update(m_board, from, to);
+        if (estimate == LowerBound.DEADLOCK)
+            return INFINITY;
+        int cost = pushes + estimate;
+        if (cost > threshold)
+            return cost;
+        if (m_board.isSolved())
+        {
+            m_pathLength = pushes;
+            return FOUND;
+        }
+        // The patterns are only checked at nodes which are expanded.
+        if (m_deadlockPatterns != null && pushes > 0 &&
+            m_deadlockPatterns.learn(m_board, m_pathBoxes[pushes - 1] +
+                m_board.getDirOffset(m_pathDirs[pushes - 1])))
+            return INFINITY;
+
+        Reachability reachability = getReachability(pushes);
+        reachability.compute(m_board);
+        if (!m_table.visit(m_board, reachability.getTopLeft(), pushes))
+            return INFINITY;
+        if (m_corralPruner.find(m_board, reachability))
+            reachability.retainPushes(m_corralPruner.getFence());
+
+        LowerBound.State bound = m_bounds[pushes];
+        m_lowerBound.save(bound);
+        int player = m_board.getPlayerPos();
+        int min = INFINITY;
+        for (int i = 0; i < reachability.getPushCount(); i++)
+        {
+            int box = reachability.getPushBox(i);
+            int dir = reachability.getPushDir(i);
+            if (m_board.isDeadSquare(box + m_board.getDirOffset(dir)))
+                continue;
+            m_board.placePlayer(box - m_board.getDirOffset(dir));
+            int step = m_board.step(dir);
+            if (step == Move.STEP_ILLEGAL)
+            {
+                // Reachability only reports legal pushes; don't search one
+                // the board refused as if it happened.
+                m_board.placePlayer(player);
+                continue;
+            }
+            m_pathBoxes[pushes] = box;
+            m_pathDirs[pushes] = dir;
+            int macroPushes = extendPush(pushes + 1,
+                box + m_board.getDirOffset(dir), dir);
+            int last = pushes + macroPushes;
+
+            int result = search(last + 1, threshold, box,
+                m_pathBoxes[last] + m_board.getDirOffset(m_pathDirs[last]));
+            m_lowerBound.restore(bound);
+
+            if (result == FOUND)
+                return FOUND;
+            for (int j = pushes + macroPushes; j > pushes; j--)
+            {
+                m_board.placePlayer(m_pathBoxes[j]);
+                m_board.undoStep(m_pathDirs[j] | Move.STEP_PUSH);
+            }
+            m_board.placePlayer(box);
+            m_board.undoStep(step);
+            m_board.placePlayer(player);
+            if (result == ABORTED)
+                return ABORTED;
+            if (result < min)
+                min = result;
+        }
+        return min;
+    }
+
+    /**
+     * Helper method - continue a push into a macro move: along a tunnel, or
+     * into a goal room (see MacroMoves). The extra pushes are made on the
+     * board, and added to the path.
+     *
+     * @param depth The path index of the first extra push.
+     * @param box The square the box was pushed to.
+     * @param dir The direction it was pushed in.
+     * @return The number of extra pushes.
+     */
+    private int extendPush(int depth, int box, int dir)
+    {
+        if (m_macros == null)
+            return 0;
+
+        int offset = m_board.getDirOffset(dir);
+        int count = 0;
+        while (true)
+        {
+            int room = m_macros.getRoomOfEntrance(box);
+            if (room >= 0 && dir == m_macros.getEntryDir(room))
+                return count + fillRoom(depth + count, box, room);
+
+            int next = m_board.getNeighbour(box, dir);
+            if (!m_macros.isTunnel(box - offset, dir) ||
+                !m_macros.isTunnel(box, dir) ||
+                BoardSquare.isTarget(m_board.getSquare(box)) || next < 0 ||
+                m_board.isDeadSquare(next) ||
+                m_board.step(dir) == Move.STEP_ILLEGAL)
+                return count;
+
+            ensureDepth(depth + count + 1);
+            m_pathBoxes[depth + count] = box;
+            m_pathDirs[depth + count] = dir;
+            box = next;
+            count++;
+        }
+    }
+
+    /**
+     * Helper method for extendPush - push a box from a room's entrance to
+     * the room's next target.
+     *
+     * @return The number of pushes, 0 if the room can't take the box.
+     */
+    private int fillRoom(int depth, int box, int room)
+    {
+        int target = m_macros.getNextRoomTarget(m_board, room);
+        if (target < 0)
+            return 0;
+        int maxPushes = m_board.getSquareCount() * Move.NUM_DIRS;
+        if (m_macroDirs.length < maxPushes)
+            m_macroDirs = new int[maxPushes];
+        int count = m_planner.plan(m_board, box, target, m_macroDirs);
+        if (count <= 0)
+            return 0;
+
+        ensureDepth(depth + count);
+        int player = m_board.getPlayerPos();
+        for (int i = 0; i < count; i++)
+        {
+            int dir = m_macroDirs[i];
+            m_board.placePlayer(box - m_board.getDirOffset(dir));
+            if (m_board.step(dir) == Move.STEP_ILLEGAL)
+            {
+                // Take back the pushes made, and do without the macro.
+                for (int j = depth + i - 1; j >= depth; j--)
+                {
+                    m_board.placePlayer(m_pathBoxes[j]);
+                    m_board.undoStep(m_pathDirs[j] | Move.STEP_PUSH);
+                }
+                m_board.placePlayer(player);
+                return 0;
+            }
+            m_pathBoxes[depth + i] = box;
+            m_pathDirs[depth + i] = dir;
+            box += m_board.getDirOffset(dir);
+        }
+        return count;
+    }
+
+    /**
+     * Helper method - get the reachability object of a search depth.
+     */
+    private Reachability getReachability(int depth)
+    {
+        ensureDepth(depth + 1);
+        return m_reachability[depth];
+    }
+
+    /**
+     * Helper method - make sure the per-depth arrays have room for the given
+     * number of depths.
+     */
+    private void ensureDepth(int depths)
+    {
+        if (depths <= m_reachability.length)
+            return;
+
+        int size = Math.max(depths, m_reachability.length * 2);
+        Reachability[] reachability = new Reachability[size];
+        System.arraycopy(m_reachability, 0, reachability, 0,
+            m_reachability.length);
+        for (int i = m_reachability.length; i < size; i++)
+            reachability[i] = new Reachability();
+        m_reachability = reachability;
+
+        LowerBound.State[] bounds = new LowerBound.State[size];
+        System.arraycopy(m_bounds, 0, bounds, 0, m_bounds.length);
+        for (int i = m_bounds.length; i < size; i++)
+            bounds[i] = m_lowerBound.createState();
+        m_bounds = bounds;
+
+        int[] pathBoxes = new int[size];
+        int[] pathDirs = new int[size];
+        System.arraycopy(m_pathBoxes, 0, pathBoxes, 0, m_pathBoxes.length);
+        System.arraycopy(m_pathDirs, 0, pathDirs, 0, m_pathDirs.length);
+        m_pathBoxes = pathBoxes;
+        m_pathDirs = pathDirs;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+
+/**
+ * An IDA* solver. The search is over pushes: each node is the position after
+ * a push, and its children are all the pushes the player can walk to. The
+ * cost of a path is its number of pushes, and the heuristic is the
+ * minimum-matching lower bound (see LowerBound), so the first solution found
+ * has the fewest pushes possible - unless macro moves are on (see
+ * Solver.setMacroMoves()), which may cost a few pushes.
+ *
+ * Each iteration keeps a transposition table of the positions already
+ * searched, keyed by their hash, so a position reached again by another
+ * order of pushes - with no fewer pushes - is not searched again. The table
+ * has a fixed size (see Solver.setTableMemory()).
+ */
+public class IdaStarSolver extends Solver
+{
+    @Override
+    public Solution solve(Board board)
+    {
+        long startTime = System.currentTimeMillis();
+        SearchBudget budget = startRun();
+        Board searchBoard = board.fork();
+        SearchTable table = new TranspositionTable(getTableMemory(),
+            false);
+        PushDistances distances = new PushDistances(searchBoard);
+        IdaStarSearch search = new IdaStarSearch(searchBoard, distances,
+            createMacroMoves(searchBoard, distances), table, budget);
+        search.setDeadlockPatterns(getDeadlockPatterns());
+
+        int threshold = search.estimate();
+        int status = Solution.UNSOLVABLE;
+        while (threshold != LowerBound.DEADLOCK)
+        {
+            table.clear();
+            int result = search.search(0, threshold);
+            if (result == IdaStarSearch.FOUND)
+            {
+                status = Solution.SOLVED;
+                break;
+            }
+            if (result == IdaStarSearch.ABORTED)
+            {
+                status = stoppedStatus();
+                break;
+            }
+            if (result == IdaStarSearch.INFINITY)
+                break;
+            threshold = result;
+        }
+        table.clear();
+        search.flushNodes();
+
+        String lurd = null;
+        if (status == Solution.SOLVED)
+        {
+            lurd = toLurd(board, search.getPathBoxes(), search.getPathDirs(),
+                search.getPathLength());
+        }
+        return createSolution(status, lurd, budget, startTime);
+    }
+}
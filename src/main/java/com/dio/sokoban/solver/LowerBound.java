@@ -0,0 +1,423 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+
+/**
+ * The minimum-matching lower bound on the number of pushes still needed to
+ * solve a position: every box is matched to a different target so that the
+ * total push distance (see PushDistances) is as small as possible. Since
+ * each box has to reach some target of its own, no solution can do with
+ * fewer pushes.
+ *
+ * The matching is found with the Hungarian algorithm, in O(boxes^3) at
+ * worst, starting from a greedy matching of each box to its nearest free
+ * target. A search doesn't need to match a position from scratch, though: a
+ * child position only moves one box, so update() rematches that box alone,
+ * in O(boxes^2), and save() and restore() take the matching back when the
+ * search backtracks. The buffers are kept between positions, so an estimate
+ * allocates nothing. Not thread safe - use one per thread (the distances
+ * can be shared).
+ */
+public class LowerBound
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The estimate of a position which can't be solved.
+     */
+    public final static int DEADLOCK = PushDistances.UNREACHABLE;
+
+    /**
+     * The matching cost of an impossible box-to-target pair. Larger than any
+     * possible total of real distances.
+     */
+    private final static long NO_MATCH = 1L << 40;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The push distances.
+     */
+    private final PushDistances m_distances;
+
+    /**
+     * The box squares of the current position.
+     */
+    private final int[] m_boxes;
+
+    /**
+     * Hungarian algorithm buffers: the row and column potentials, the row
+     * matched to each column, the previous column on the augmenting path,
+     * the smallest slack of each column, and the visited columns. All are
+     * 1-based, with column 0 as the virtual start.
+     */
+    private final long[] m_rowPotential;
+    private final long[] m_colPotential;
+    private final int[] m_matchedRow;
+    private final int[] m_way;
+    private final long[] m_minSlack;
+    private final boolean[] m_used;
+
+    /**
+     * The number of boxes matched.
+     */
+    private int m_boxCount;
+
+    /**
+     * Whether the buffers hold the optimal matching of the boxes, with every
+     * target matched - the matching update() can start from.
+     */
+    private boolean m_matched;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a lower bound calculator.
+     *
+     * @param distances The push distances of the level.
+     */
+    public LowerBound(PushDistances distances)
+    {
+        m_distances = distances;
+        int size = distances.getTargetCount() + 1;
+        m_boxes = new int[size];
+        m_rowPotential = new long[size];
+        m_colPotential = new long[size];
+        m_matchedRow = new int[size];
+        m_way = new int[size];
+        m_minSlack = new long[size];
+        m_used = new boolean[size];
+    }
+
+    /**
+     * @return The push distances used.
+     */
+    public PushDistances getDistances()
+    {
+        return m_distances;
+    }
+
+    /**
+     * Estimate the pushes needed to solve a board's current position.
+     *
+     * @param board The board.
+     * @return The lower bound, or DEADLOCK if some box can't reach any
+     * target, or the boxes can't all reach different targets.
+     */
+    public int estimate(Board board)
+    {
+        long[] boxes = board.getBitBoard().getBoxes();
+        int boxCount = 0;
+        for (int word = 0; word < boxes.length; word++)
+        {
+            long bits = boxes[word];
+            while (bits != 0)
+            {
+                int pos = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (m_distances.getNearest(pos) == PushDistances.UNREACHABLE ||
+                    boxCount == m_distances.getTargetCount())
+                {
+                    m_matched = false;
+                    return DEADLOCK;
+                }
+                m_boxes[boxCount++] = pos;
+            }
+        }
+        return estimate(m_boxes, boxCount);
+    }
+
+    /**
+     * Estimate the pushes needed to move the given boxes to targets.
+     *
+     * @param boxes The box squares.
+     * @param boxCount The number of boxes. Must not be more than the number
+     * of targets.
+     * @return The lower bound, or DEADLOCK.
+     */
+    public int estimate(int[] boxes, int boxCount)
+    {
+        if (boxes != m_boxes)
+            System.arraycopy(boxes, 0, m_boxes, 0, boxCount);
+        m_boxCount = boxCount;
+        match();
+        m_matched = boxCount == m_distances.getTargetCount();
+        return getTotal();
+    }
+
+    /**
+     * Estimate the pushes needed to solve a board's current position, which
+     * differs from the last one estimated by a single box having moved.
+     * Unless the last estimate matched every target, the position is matched
+     * from scratch.
+     *
+     * @param board The board.
+     * @param from The square the box moved from.
+     * @param to The square it moved to.
+     * @return The lower bound, or DEADLOCK.
+     */
+    public int update(Board board, int from, int to)
+    {
+        int row = 0;
+        if (m_matched)
+        {
+            for (int i = 1; i <= m_boxCount; i++)
+            {
+                if (m_boxes[i - 1] == from)
+                {
+                    row = i;
+                    break;
+                }
+            }
+        }
+        if (row == 0)
+            return estimate(board);
+
+        m_boxes[row - 1] = to;
+        if (m_distances.getNearest(to) == PushDistances.UNREACHABLE)
+        {
+            m_matched = false;
+            return DEADLOCK;
+        }
+        // Unmatch the box. The column potentials never grow above 0, so a
+        // row potential of 0 keeps the potentials feasible whatever the
+        // box's new distances are, and the matched pairs of the other boxes
+        // stay tight: one augmenting path from the box makes the matching
+        // optimal again.
+        int cols = m_distances.getTargetCount();
+        for (int col = 1; col <= cols; col++)
+        {
+            if (m_matchedRow[col] == row)
+                m_matchedRow[col] = 0;
+        }
+        m_rowPotential[row] = 0;
+        augment(row, cols);
+        return getTotal();
+    }
+
+    /**
+     * Create a buffer for save().
+     */
+    State createState()
+    {
+        return new State(m_boxes.length);
+    }
+
+    /**
+     * Save the current matching, for restore().
+     */
+    void save(State state)
+    {
+        int size = m_distances.getTargetCount() + 1;
+        System.arraycopy(m_boxes, 0, state.m_boxes, 0, m_boxCount);
+        System.arraycopy(m_rowPotential, 0, state.m_rowPotential, 0, size);
+        System.arraycopy(m_colPotential, 0, state.m_colPotential, 0, size);
+        System.arraycopy(m_matchedRow, 0, state.m_matchedRow, 0, size);
+        state.m_boxCount = m_boxCount;
+        state.m_matched = m_matched;
+    }
+
+    /**
+     * Go back to a matching taken with save().
+     */
+    void restore(State state)
+    {
+        int size = m_distances.getTargetCount() + 1;
+        System.arraycopy(state.m_boxes, 0, m_boxes, 0, state.m_boxCount);
+        System.arraycopy(state.m_rowPotential, 0, m_rowPotential, 0, size);
+        System.arraycopy(state.m_colPotential, 0, m_colPotential, 0, size);
+        System.arraycopy(state.m_matchedRow, 0, m_matchedRow, 0, size);
+        m_boxCount = state.m_boxCount;
+        m_matched = state.m_matched;
+    }
+
+    /**
+     * Helper method - the matching cost of a box and a target.
+     */
+    private long cost(int row, int col)
+    {
+        int distance = m_distances.getDistance(col - 1, m_boxes[row - 1]);
+        return (distance == PushDistances.UNREACHABLE) ? NO_MATCH : distance;
+    }
+
+    /**
+     * Helper method - find the minimal total cost of matching every box (row)
+     * to a different target (column). Each box first takes its nearest
+     * target, if that's still free, and only the rest are matched along
+     * augmenting paths.
+     */
+    private void match()
+    {
+        int cols = m_distances.getTargetCount();
+        for (int i = 0; i <= cols; i++)
+        {
+            m_rowPotential[i] = 0;
+            m_colPotential[i] = 0;
+            m_matchedRow[i] = 0;
+            m_way[i] = 0;
+        }
+
+        for (int row = 1; row <= m_boxCount; row++)
+        {
+            // The nearest target, a free one if there's a choice.
+            long min = Long.MAX_VALUE;
+            int minCol = 0;
+            for (int col = 1; col <= cols; col++)
+            {
+                long cost = cost(row, col);
+                if (cost < min || (cost == min &&
+                    m_matchedRow[minCol] != 0 && m_matchedRow[col] == 0))
+                {
+                    min = cost;
+                    minCol = col;
+                }
+            }
+            // The potentials stay feasible, and the pair is tight.
+            m_rowPotential[row] = min;
+            if (m_matchedRow[minCol] == 0)
+                m_matchedRow[minCol] = row;
+        }
+
+        for (int row = 1; row <= m_boxCount; row++)
+        {
+            if (!isMatched(row, cols))
+                augment(row, cols);
+        }
+    }
+
+    /**
+     * Helper method - check whether a row is matched.
+     */
+    private boolean isMatched(int row, int cols)
+    {
+        for (int col = 1; col <= cols; col++)
+        {
+            if (m_matchedRow[col] == row)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method - match an unmatched row, along a shortest augmenting
+     * path.
+     */
+    private void augment(int row, int cols)
+    {
+        m_matchedRow[0] = row;
+        int col0 = 0;
+        for (int col = 0; col <= cols; col++)
+        {
+            m_minSlack[col] = Long.MAX_VALUE;
+            m_used[col] = false;
+        }
+        do
+        {
+            m_used[col0] = true;
+            int row0 = m_matchedRow[col0];
+            long delta = Long.MAX_VALUE;
+            int col1 = 0;
+            for (int col = 1; col <= cols; col++)
+            {
+                if (m_used[col])
+                    continue;
+                long slack = cost(row0, col) -
+                    m_rowPotential[row0] - m_colPotential[col];
+                if (slack < m_minSlack[col])
+                {
+                    m_minSlack[col] = slack;
+                    m_way[col] = col0;
+                }
+                if (m_minSlack[col] < delta)
+                {
+                    delta = m_minSlack[col];
+                    col1 = col;
+                }
+            }
+            for (int col = 0; col <= cols; col++)
+            {
+                if (m_used[col])
+                {
+                    m_rowPotential[m_matchedRow[col]] += delta;
+                    m_colPotential[col] -= delta;
+                }
+                else
+                {
+                    m_minSlack[col] -= delta;
+                }
+            }
+            col0 = col1;
+        }
+        while (m_matchedRow[col0] != 0);
+
+        // Flip the augmenting path.
+        do
+        {
+            int col1 = m_way[col0];
+            m_matchedRow[col0] = m_matchedRow[col1];
+            col0 = col1;
+        }
+        while (col0 != 0);
+    }
+
+    /**
+     * Helper method - the total cost of the matching, as an estimate.
+     */
+    private int getTotal()
+    {
+        int cols = m_distances.getTargetCount();
+        long total = 0;
+        for (int col = 1; col <= cols; col++)
+        {
+            if (m_matchedRow[col] != 0)
+                total += cost(m_matchedRow[col], col);
+        }
+        return (total >= NO_MATCH) ? DEADLOCK : (int)total;
+    }
+
+    /**
+     * A saved matching (see save()).
+     */
+    static class State
+    {
+        final int[] m_boxes;
+        final long[] m_rowPotential;
+        final long[] m_colPotential;
+        final int[] m_matchedRow;
+        int m_boxCount;
+        boolean m_matched;
+
+        State(int size)
+        {
+            m_boxes = new int[size];
+            m_rowPotential = new long[size];
+            m_colPotential = new long[size];
+            m_matchedRow = new int[size];
+        }
+    }
+}
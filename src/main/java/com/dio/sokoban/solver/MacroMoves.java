@@ -0,0 +1,380 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Bits;
+import com.dio.sokoban.Board;
+import com.dio.sokoban.BoardSquare;
+import com.dio.sokoban.IntQueue;
+import com.dio.sokoban.Move;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The macro moves of a level: tunnels and goal rooms, found once when the
+ * level is read.
+ *
+ * A tunnel square has walls on both sides across the direction of travel.
+ * When a box is pushed along a tunnel, with the player in the tunnel behind
+ * it, the only useful thing to do is to keep pushing, so the search makes
+ * the whole run one move.
+ *
+ * A goal room is an area with targets, and no boxes at the start, which is
+ * entered through a single square - its entrance. The room's targets are
+ * ordered deepest first (by push distance from the entrance), and a box
+ * pushed through the entrance into the room is taken straight to the next
+ * target to fill, in one move.
+ *
+ * Like PushDistances, the analysis never changes, so it can be shared by
+ * any number of searches and threads.
+ */
+public class MacroMoves
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The tunnel squares for horizontal pushes (walls above and below) and
+     * for vertical pushes (walls left and right).
+     */
+    private final long[] m_horizontalTunnels;
+    private final long[] m_verticalTunnels;
+
+    /**
+     * The room of each square, or -1 for squares not in a room.
+     */
+    private final int[] m_roomOf;
+
+    /**
+     * The room whose entrance each square is, or -1.
+     */
+    private final int[] m_entranceOf;
+
+    /**
+     * The direction from each room's entrance into the room.
+     */
+    private final int[] m_entryDirs;
+
+    /**
+     * The targets of each room, in the order they should be filled.
+     */
+    private final int[][] m_roomTargets;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Analyze a board's level.
+     *
+     * @param board The board, in the start position.
+     * @param distances The level's push distances.
+     */
+    public MacroMoves(Board board, PushDistances distances)
+    {
+        int squareCount = board.getSquareCount();
+        long[] floor = board.getBitBoard().getFloor();
+        m_horizontalTunnels = Bits.create(squareCount);
+        m_verticalTunnels = Bits.create(squareCount);
+        for (int pos = 0; pos < squareCount; pos++)
+        {
+            if (!Bits.get(floor, pos))
+                continue;
+            if (!isFloor(floor, board.getNeighbour(pos, Move.DIR_UP)) &&
+                !isFloor(floor, board.getNeighbour(pos, Move.DIR_DOWN)))
+                Bits.set(m_horizontalTunnels, pos);
+            if (!isFloor(floor, board.getNeighbour(pos, Move.DIR_LEFT)) &&
+                !isFloor(floor, board.getNeighbour(pos, Move.DIR_RIGHT)))
+                Bits.set(m_verticalTunnels, pos);
+        }
+
+        m_roomOf = new int[squareCount];
+        m_entranceOf = new int[squareCount];
+        Arrays.fill(m_roomOf, -1);
+        Arrays.fill(m_entranceOf, -1);
+        List<Room> rooms = findRooms(board, distances);
+        m_entryDirs = new int[rooms.size()];
+        m_roomTargets = new int[rooms.size()][];
+        for (int room = 0; room < rooms.size(); room++)
+        {
+            Room found = rooms.get(room);
+            m_entryDirs[room] = found.m_entryDir;
+            m_roomTargets[room] = found.m_targets;
+            m_entranceOf[found.m_entrance] = room;
+            for (int pos = 0; pos < squareCount; pos++)
+            {
+                if (Bits.get(found.m_squares, pos))
+                    m_roomOf[pos] = room;
+            }
+        }
+    }
+
+    /**
+     * Check whether a square is a tunnel square for pushes in a direction.
+     */
+    public boolean isTunnel(int pos, int dir)
+    {
+        return Bits.get((dir == Move.DIR_LEFT || dir == Move.DIR_RIGHT) ?
+            m_horizontalTunnels : m_verticalTunnels, pos);
+    }
+
+    /**
+     * @return The number of goal rooms.
+     */
+    public int getRoomCount()
+    {
+        return m_roomTargets.length;
+    }
+
+    /**
+     * @return The room a square is in, or -1.
+     */
+    public int getRoom(int pos)
+    {
+        return m_roomOf[pos];
+    }
+
+    /**
+     * @return The room whose entrance a square is, or -1.
+     */
+    public int getRoomOfEntrance(int pos)
+    {
+        return m_entranceOf[pos];
+    }
+
+    /**
+     * @return The direction from a room's entrance into the room.
+     */
+    public int getEntryDir(int room)
+    {
+        return m_entryDirs[room];
+    }
+
+    /**
+     * @return The number of targets in a room.
+     */
+    public int getRoomTargetCount(int room)
+    {
+        return m_roomTargets[room].length;
+    }
+
+    /**
+     * Get a room's target, in fill order: the first target is the deepest,
+     * and should be filled first.
+     */
+    public int getRoomTarget(int room, int index)
+    {
+        return m_roomTargets[room][index];
+    }
+
+    /**
+     * Find the room's target to fill next in the board's current position.
+     * The room must have been filled in order so far: its boxes must be on
+     * its first targets, and nowhere else.
+     *
+     * @return The target, or -1 if the room is full, or wasn't filled in
+     * order.
+     */
+    public int getNextRoomTarget(Board board, int room)
+    {
+        int[] targets = m_roomTargets[room];
+        int filled = 0;
+        while (filled < targets.length &&
+            BoardSquare.hasBox(board.getSquare(targets[filled])))
+            filled++;
+        if (filled == targets.length)
+            return -1;
+
+        int roomBoxes = 0;
+        for (int pos = 0; pos < m_roomOf.length; pos++)
+        {
+            if (m_roomOf[pos] == room &&
+                BoardSquare.hasBox(board.getSquare(pos)))
+                roomBoxes++;
+        }
+        return (roomBoxes == filled) ? targets[filled] : -1;
+    }
+
+    /**
+     * Helper method - find the goal rooms. Each floor square which isn't a
+     * target is tried as an entrance: the area behind one of its
+     * neighbours, not counting the square itself, is a room if it has
+     * targets, and neither boxes nor the player, and touches the square on
+     * that side only. Of overlapping rooms, the largest is kept.
+     */
+    private static List<Room> findRooms(Board board, PushDistances distances)
+    {
+        int squareCount = board.getSquareCount();
+        long[] floor = board.getBitBoard().getFloor();
+        long[] targets = board.getBitBoard().getTargets();
+        long[] boxes = board.getBitBoard().getBoxes();
+        IntQueue queue = new IntQueue(64);
+        List<Room> candidates = new ArrayList<Room>();
+        for (int entrance = 0; entrance < squareCount; entrance++)
+        {
+            if (!Bits.get(floor, entrance) || Bits.get(targets, entrance))
+                continue;
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int start = board.getNeighbour(entrance, dir);
+                if (!isFloor(floor, start))
+                    continue;
+                long[] area = fill(board, floor, entrance, start, queue);
+                if (!Bits.intersects(area, targets) ||
+                    Bits.intersects(area, boxes) ||
+                    Bits.get(area, board.getPlayerPos()) ||
+                    touchCount(board, area, entrance) != 1)
+                    continue;
+                Room room = Room.create(board, distances, entrance, dir,
+                    area);
+                if (room != null)
+                    candidates.add(room);
+            }
+        }
+
+        // The largest rooms first; a room overlapping one already taken is
+        // nested in it.
+        Room[] sorted = candidates.toArray(new Room[candidates.size()]);
+        Arrays.sort(sorted);
+        List<Room> rooms = new ArrayList<Room>();
+        long[] taken = Bits.create(squareCount);
+        for (int i = 0; i < sorted.length; i++)
+        {
+            Room room = sorted[i];
+            if (Bits.intersects(room.m_squares, taken) ||
+                Bits.get(taken, room.m_entrance))
+                continue;
+            rooms.add(room);
+            Bits.or(taken, room.m_squares, taken);
+        }
+        return rooms;
+    }
+
+    /**
+     * Helper method - flood fill the floor from a square, without crossing
+     * another one.
+     */
+    private static long[] fill(Board board, long[] floor, int excluded,
+        int start, IntQueue queue)
+    {
+        long[] area = Bits.create(board.getSquareCount());
+        Bits.set(area, start);
+        queue.clear();
+        queue.add(start);
+        while (!queue.isEmpty())
+        {
+            int pos = queue.remove();
+            for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+            {
+                int next = board.getNeighbour(pos, dir);
+                if (next == excluded || !isFloor(floor, next) ||
+                    Bits.get(area, next))
+                    continue;
+                Bits.set(area, next);
+                queue.add(next);
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Helper method - count the neighbours of a square in an area.
+     */
+    private static int touchCount(Board board, long[] area, int pos)
+    {
+        int count = 0;
+        for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+        {
+            int next = board.getNeighbour(pos, dir);
+            if (next >= 0 && Bits.get(area, next))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Helper method - check whether a square is floor.
+     */
+    private static boolean isFloor(long[] floor, int pos)
+    {
+        return pos >= 0 && pos < (floor.length << 6) && Bits.get(floor, pos);
+    }
+
+    /**
+     * A goal room found by the analysis.
+     */
+    private static class Room implements Comparable<Room>
+    {
+        final int m_entrance;
+        final int m_entryDir;
+        final long[] m_squares;
+        final int m_size;
+        final int[] m_targets;
+
+        private Room(int entrance, int entryDir, long[] squares,
+            int[] targets)
+        {
+            m_entrance = entrance;
+            m_entryDir = entryDir;
+            m_squares = squares;
+            m_size = Bits.count(squares);
+            m_targets = targets;
+        }
+
+        /**
+         * Create a room, with its targets sorted deepest first.
+         *
+         * @return The room, or null if a box can't be pushed from the
+         * entrance to all of its targets.
+         */
+        static Room create(Board board, PushDistances distances,
+            int entrance, int entryDir, long[] squares)
+        {
+            int count = 0;
+            long[] keys = new long[distances.getTargetCount()];
+            for (int t = 0; t < distances.getTargetCount(); t++)
+            {
+                int target = distances.getTarget(t);
+                if (!Bits.get(squares, target))
+                    continue;
+                int distance = distances.getDistance(t, entrance);
+                if (distance == PushDistances.UNREACHABLE)
+                    return null;
+                // Sort by decreasing distance, then by square.
+                keys[count++] = ((long)(Integer.MAX_VALUE - distance) << 32) |
+                    target;
+            }
+            Arrays.sort(keys, 0, count);
+            int[] targets = new int[count];
+            for (int i = 0; i < count; i++)
+                targets[i] = (int)keys[i];
+            return new Room(entrance, entryDir, squares, targets);
+        }
+
+        public int compareTo(Room other)
+        {
+            return (m_size != other.m_size) ? other.m_size - m_size :
+                m_entrance - other.m_entrance;
+        }
+    }
+}
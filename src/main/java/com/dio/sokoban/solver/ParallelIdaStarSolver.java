@@ -0,0 +1,338 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.Reachability;
+import com.dio.sokoban.StateKey;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A multi-threaded version of IdaStarSolver. The first few pushes from the
+ * start position are expanded breadth-first into a frontier of positions,
+ * and in every IDA* iteration a pool of worker threads takes frontier
+ * positions from a shared queue and searches each one depth-first. A worker
+ * which is done with its position just takes the next one, so the load
+ * balances itself. The workers share one transposition table, so a position
+ * searched by one of them is not searched again by the others.
+ *
+ * The search is the same as the sequential one, with the same push
+ * semantics, and finds solutions with as few pushes.
+ */
+public class ParallelIdaStarSolver extends Solver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of frontier positions to create per worker thread. Having
+     * many more positions than threads is what keeps all threads busy until
+     * the end of an iteration.
+     */
+    private final static int FRONTIER_PER_THREAD = 32;
+
+    /**
+     * The maximal depth of the frontier, in pushes.
+     */
+    private final static int MAX_FRONTIER_DEPTH = 6;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The number of worker threads.
+     */
+    private int m_threads = Runtime.getRuntime().availableProcessors();
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Set the number of worker threads. The default is the number of
+     * available processors.
+     */
+    public void setThreads(int threads)
+    {
+        m_threads = Math.max(threads, 1);
+    }
+
+    /**
+     * @return The number of worker threads.
+     */
+    public int getThreads()
+    {
+        return m_threads;
+    }
+
+    @Override
+    public Solution solve(Board board)
+    {
+        long startTime = System.currentTimeMillis();
+        final SearchBudget budget = startRun();
+        Board firstBoard = board.fork();
+        PushDistances distances = new PushDistances(firstBoard);
+        MacroMoves macros = createMacroMoves(firstBoard, distances);
+        final SearchTable table = new TranspositionTable(getTableMemory(),
+            true);
+        final IdaStarSearch[] searches = new IdaStarSearch[m_threads];
+        for (int i = 0; i < m_threads; i++)
+        {
+            searches[i] = new IdaStarSearch((i == 0) ? firstBoard :
+                board.fork(), distances, macros, table, budget);
+            searches[i].setDeadlockPatterns(getDeadlockPatterns());
+        }
+
+        // The first threshold is the start position's bound, so it's taken
+        // before building the frontier leaves the board on another position.
+        int threshold = searches[0].estimate();
+        List<FrontierNode> frontier = buildFrontier(searches[0]);
+        int status = Solution.UNSOLVABLE;
+        final IdaStarSearch[] winner = new IdaStarSearch[1];
+        ExecutorService executor = Executors.newFixedThreadPool(m_threads,
+            new SolverThreadFactory());
+        try
+        {
+            while (threshold != LowerBound.DEADLOCK && !frontier.isEmpty())
+            {
+                table.clear();
+                final ConcurrentLinkedQueue<FrontierNode> queue =
+                    new ConcurrentLinkedQueue<FrontierNode>(frontier);
+                final int iterationThreshold = threshold;
+                List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int i = 0; i < m_threads; i++)
+                {
+                    final IdaStarSearch search = searches[i];
+                    results.add(executor.submit(new Callable<Integer>()
+                    {
+                        public Integer call()
+                        {
+                            return Integer.valueOf(searchFrontier(search,
+                                queue, iterationThreshold, budget, winner));
+                        }
+                    }));
+                }
+
+                int min = IdaStarSearch.INFINITY;
+                for (int i = 0; i < results.size(); i++)
+                    min = Math.min(min, getResult(results.get(i)));
+
+                if (winner[0] != null)
+                {
+                    status = Solution.SOLVED;
+                    break;
+                }
+                if (budget.isExceeded())
+                {
+                    status = stoppedStatus();
+                    break;
+                }
+                if (min == IdaStarSearch.INFINITY)
+                    break;
+                threshold = min;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            table.clear();
+        }
+        for (int i = 0; i < m_threads; i++)
+            searches[i].flushNodes();
+
+        String lurd = null;
+        if (status == Solution.SOLVED)
+        {
+            IdaStarSearch search = winner[0];
+            lurd = toLurd(board, search.getPathBoxes(), search.getPathDirs(),
+                search.getPathLength());
+        }
+        return createSolution(status, lurd, budget, startTime);
+    }
+
+    /**
+     * Helper method - a worker's part of an iteration: search frontier
+     * positions until there are none left, or the search is stopped.
+     *
+     * @return The smallest cost above the threshold found, or ABORTED.
+     */
+    private static int searchFrontier(IdaStarSearch search,
+        ConcurrentLinkedQueue<FrontierNode> queue, int threshold,
+        SearchBudget budget, IdaStarSearch[] winner)
+    {
+        int min = IdaStarSearch.INFINITY;
+        Board board = search.getBoard();
+        FrontierNode node;
+        while ((node = queue.poll()) != null)
+        {
+            board.restore(node.m_snapshot);
+            search.setPath(node.m_boxes, node.m_dirs, node.m_boxes.length);
+            int result = search.search(node.m_boxes.length, threshold);
+            if (result == IdaStarSearch.FOUND)
+            {
+                synchronized (winner)
+                {
+                    if (winner[0] == null)
+                        winner[0] = search;
+                }
+                budget.stop();
+                return IdaStarSearch.ABORTED;
+            }
+            if (result == IdaStarSearch.ABORTED)
+                return IdaStarSearch.ABORTED;
+            min = Math.min(min, result);
+        }
+        return min;
+    }
+
+    /**
+     * Helper method - get a worker's result.
+     */
+    private static int getResult(Future<Integer> future)
+    {
+        try
+        {
+            int result = future.get().intValue();
+            return (result == IdaStarSearch.ABORTED) ?
+                IdaStarSearch.INFINITY : result;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("A solver thread failed",
+                e.getCause());
+        }
+    }
+
+    /**
+     * Helper method - expand the start position breadth-first into the
+     * frontier. Positions reached again are dropped, and so are deadlocked
+     * ones; solved positions are kept, and not expanded.
+     */
+    private List<FrontierNode> buildFrontier(IdaStarSearch search)
+    {
+        Board board = search.getBoard();
+        Reachability reachability = new Reachability();
+        StateKey.Builder keyBuilder = new StateKey.Builder();
+        Set<StateKey> seen = new HashSet<StateKey>();
+        int target = m_threads * FRONTIER_PER_THREAD;
+
+        List<FrontierNode> frontier = new ArrayList<FrontierNode>();
+        if (search.estimate() == LowerBound.DEADLOCK)
+            return frontier;
+        frontier.add(new FrontierNode(board.snapshot(), new int[0],
+            new int[0]));
+        seen.add(keyBuilder.build(board));
+
+        for (int depth = 0; depth < MAX_FRONTIER_DEPTH &&
+            frontier.size() < target; depth++)
+        {
+            List<FrontierNode> next = new ArrayList<FrontierNode>();
+            boolean expanded = false;
+            for (int i = 0; i < frontier.size(); i++)
+            {
+                FrontierNode node = frontier.get(i);
+                board.restore(node.m_snapshot);
+                if (board.isSolved())
+                {
+                    next.add(node);
+                    continue;
+                }
+                expanded = true;
+                // The children's bounds are updated from this one's.
+                search.estimate();
+                reachability.compute(board);
+                int player = board.getPlayerPos();
+                for (int push = 0; push < reachability.getPushCount(); push++)
+                {
+                    int box = reachability.getPushBox(push);
+                    int dir = reachability.getPushDir(push);
+                    board.placePlayer(box - board.getDirOffset(dir));
+                    int step = board.step(dir);
+                    if (step == Move.STEP_ILLEGAL)
+                    {
+                        board.placePlayer(player);
+                        continue;
+                    }
+                    if (search.estimatePush(box,
+                            box + board.getDirOffset(dir)) !=
+                        LowerBound.DEADLOCK &&
+                        seen.add(keyBuilder.build(board)))
+                    {
+                        next.add(new FrontierNode(board.snapshot(),
+                            append(node.m_boxes, box),
+                            append(node.m_dirs, dir)));
+                    }
+                    board.undoStep(step);
+                    board.placePlayer(player);
+                }
+            }
+            frontier = next;
+            if (!expanded)
+                break;
+        }
+        return frontier;
+    }
+
+    /**
+     * Helper method - a copy of an array with one more value.
+     */
+    private static int[] append(int[] values, int value)
+    {
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, values.length);
+        result[values.length] = value;
+        return result;
+    }
+
+    /**
+     * A frontier position, and the pushes which lead to it.
+     */
+    private static class FrontierNode
+    {
+        final Board.Snapshot m_snapshot;
+        final int[] m_boxes;
+        final int[] m_dirs;
+
+        FrontierNode(Board.Snapshot snapshot, int[] boxes, int[] dirs)
+        {
+            m_snapshot = snapshot;
+            m_boxes = boxes;
+            m_dirs = dirs;
+        }
+    }
+}
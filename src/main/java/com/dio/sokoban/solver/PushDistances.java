@@ -0,0 +1,177 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Bits;
+import com.dio.sokoban.BitBoard;
+import com.dio.sokoban.Board;
+import com.dio.sokoban.IntQueue;
+import com.dio.sokoban.Move;
+
+import java.util.Arrays;
+
+/**
+ * The push distance from every square to every target, ignoring all other
+ * boxes: the number of pushes needed to move a single box from the square
+ * to the target, on a board with nothing but walls. The table is computed
+ * once per level by pulling a box away from each target (a box can be
+ * pulled from a square if the square behind it, and the one behind that for
+ * the player, are both floor).
+ *
+ * The distances never change, so a table can be shared by any number of
+ * searches and threads.
+ */
+public class PushDistances
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The distance of a square from which a target can't be reached.
+     */
+    public final static int UNREACHABLE = Integer.MAX_VALUE / 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The target squares.
+     */
+    private final int[] m_targets;
+
+    /**
+     * The distances, indexed by [target index][square].
+     */
+    private final int[][] m_distances;
+
+    /**
+     * The smallest distance from each square to any target.
+     */
+    private final int[] m_nearest;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Compute the push distances of a board's level.
+     *
+     * @param board The board.
+     */
+    public PushDistances(Board board)
+    {
+        BitBoard bitBoard = board.getBitBoard();
+        long[] targets = bitBoard.getTargets();
+        long[] floor = bitBoard.getFloor();
+        int squareCount = board.getSquareCount();
+
+        m_targets = new int[Bits.count(targets)];
+        int targetIndex = 0;
+        for (int pos = 0; pos < squareCount; pos++)
+        {
+            if (Bits.get(targets, pos))
+                m_targets[targetIndex++] = pos;
+        }
+
+        m_distances = new int[m_targets.length][squareCount];
+        m_nearest = new int[squareCount];
+        Arrays.fill(m_nearest, UNREACHABLE);
+        IntQueue queue = new IntQueue(squareCount);
+        for (int t = 0; t < m_targets.length; t++)
+        {
+            int[] distances = m_distances[t];
+            Arrays.fill(distances, UNREACHABLE);
+            distances[m_targets[t]] = 0;
+            queue.clear();
+            queue.add(m_targets[t]);
+            while (!queue.isEmpty())
+            {
+                int pos = queue.remove();
+                int nextDistance = distances[pos] + 1;
+                for (int dir = 0; dir < Move.NUM_DIRS; dir++)
+                {
+                    // Pull the box one square against the direction: it
+                    // comes from prev, with the player pushing from behind.
+                    int back = Move.getOppositeDir(dir);
+                    int prev = board.getNeighbour(pos, back);
+                    int player = (prev < 0) ? -1 :
+                        board.getNeighbour(prev, back);
+                    if (!isFloor(floor, prev, squareCount) ||
+                        !isFloor(floor, player, squareCount) ||
+                        distances[prev] != UNREACHABLE)
+                        continue;
+                    distances[prev] = nextDistance;
+                    queue.add(prev);
+                }
+            }
+            for (int pos = 0; pos < squareCount; pos++)
+                m_nearest[pos] = Math.min(m_nearest[pos], distances[pos]);
+        }
+    }
+
+    /**
+     * @return The number of targets.
+     */
+    public int getTargetCount()
+    {
+        return m_targets.length;
+    }
+
+    /**
+     * @return The square of a target.
+     */
+    public int getTarget(int targetIndex)
+    {
+        return m_targets[targetIndex];
+    }
+
+    /**
+     * Get the push distance from a square to a target.
+     *
+     * @param targetIndex The target index, from 0 to getTargetCount() - 1.
+     * @param pos The square.
+     * @return The distance, or UNREACHABLE.
+     */
+    public int getDistance(int targetIndex, int pos)
+    {
+        return m_distances[targetIndex][pos];
+    }
+
+    /**
+     * Get the push distance from a square to the nearest target.
+     *
+     * @return The distance, or UNREACHABLE if a box on the square can never
+     * reach any target.
+     */
+    public int getNearest(int pos)
+    {
+        return m_nearest[pos];
+    }
+
+    /**
+     * Helper method - check whether a square is floor.
+     */
+    private static boolean isFloor(long[] floor, int pos, int squareCount)
+    {
+        return pos >= 0 && pos < squareCount && Bits.get(floor, pos);
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of fixed-size records of longs, written and read through a small
+ * buffer, so the records never have to fit on the heap. Files are written
+ * once, from start to end, and then only read. ExternalBfsSolver keeps them
+ * sorted, so they can be merged in one pass, and searched without an index.
+ *
+ * Nothing is memory mapped: a mapping lives until it's garbage collected,
+ * so it would hold on to the space of a deleted file, and a search makes
+ * enough of them to run out of the process's mappings.
+ */
+class RecordFile
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The size of the buffer of a reader or a writer, in bytes. A merge
+     * reads many files at once, so it's kept small.
+     */
+    private final static int BUFFER_BYTES = 64 * 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The file.
+     */
+    private final File m_file;
+
+    /**
+     * The number of longs in a record.
+     */
+    private final int m_width;
+
+    /**
+     * The number of records in a buffer.
+     */
+    private final int m_bufferRecords;
+
+    /**
+     * The record read by contains(), as bytes and as longs.
+     */
+    private final ByteBuffer m_probe;
+    private final LongBuffer m_probeRecord;
+
+    /**
+     * The number of records in the file, once it was written.
+     */
+    private long m_count;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a record file. Nothing is written until a writer is opened.
+     *
+     * @param file The file.
+     * @param width The number of longs in a record.
+     */
+    RecordFile(File file, int width)
+    {
+        m_file = file;
+        m_width = width;
+        m_bufferRecords = Math.max(1, BUFFER_BYTES / (width * 8));
+        m_probe = ByteBuffer.allocate(width * 8);
+        m_probeRecord = m_probe.asLongBuffer();
+    }
+
+    /**
+     * @return The number of records in the file.
+     */
+    long getCount()
+    {
+        return m_count;
+    }
+
+    /**
+     * Open the file for writing, replacing what was in it.
+     */
+    Writer openWriter() throws IOException
+    {
+        return new Writer();
+    }
+
+    /**
+     * Open the file for reading its records in order.
+     */
+    Reader openReader() throws IOException
+    {
+        return new Reader();
+    }
+
+    /**
+     * Check whether a sorted file has a record, by a binary search. Each
+     * probe reads one record.
+     *
+     * @param record The record.
+     * @return true if it's in the file.
+     */
+    boolean contains(long[] record) throws IOException
+    {
+        RandomAccessFile input = new RandomAccessFile(m_file, "r");
+        try
+        {
+            FileChannel channel = input.getChannel();
+            long[] middleRecord = new long[m_width];
+            long low = 0;
+            long high = m_count - 1;
+            while (low <= high)
+            {
+                long middle = (low + high) >>> 1;
+                m_probe.clear();
+                read(channel, m_probe, middle * m_width * 8L);
+                m_probeRecord.clear();
+                m_probeRecord.get(middleRecord);
+                int order = compare(middleRecord, 0, record, 0, m_width);
+                if (order == 0)
+                    return true;
+                if (order < 0)
+                    low = middle + 1;
+                else
+                    high = middle - 1;
+            }
+            return false;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Delete the file.
+     */
+    void delete()
+    {
+        m_file.delete();
+        m_count = 0;
+    }
+
+    /**
+     * Compare two records, in the order the files are sorted in.
+     *
+     * @param a The array of the first record.
+     * @param aOffset The index of the first record in it.
+     * @param b The array of the second record.
+     * @param bOffset The index of the second record in it.
+     * @param width The number of longs in a record.
+     * @return A negative number, 0 or a positive number, as the first
+     * record comes before, is equal to or comes after the second.
+     */
+    static int compare(long[] a, int aOffset, long[] b, int bOffset,
+        int width)
+    {
+        for (int i = 0; i < width; i++)
+        {
+            long x = a[aOffset + i];
+            long y = b[bOffset + i];
+            if (x != y)
+                return (x < y) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Sort the records of an array, and drop the duplicates.
+     *
+     * @param records The records, one after the other.
+     * @param count The number of records.
+     * @param width The number of longs in a record.
+     * @return The number of distinct records, which are now at the start of
+     * the array.
+     */
+    static int sortUnique(long[] records, int count, int width)
+    {
+        long[] temp = new long[width * 2];
+        sort(records, 0, count - 1, width, temp);
+
+        int unique = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (unique > 0 && compare(records, (unique - 1) * width, records,
+                i * width, width) == 0)
+                continue;
+            if (unique != i)
+                System.arraycopy(records, i * width, records, unique * width,
+                    width);
+            unique++;
+        }
+        return unique;
+    }
+
+    /**
+     * Helper method for sortUnique - quicksort a range of records.
+     *
+     * @param temp Room for two records.
+     */
+    private static void sort(long[] records, int low, int high, int width,
+        long[] temp)
+    {
+        while (high - low > 16)
+        {
+            // The pivot is the median of the first, middle and last records,
+            // copied aside.
+            int middle = (low + high) >>> 1;
+            if (compare(records, middle * width, records, low * width,
+                width) < 0)
+                swap(records, middle, low, width, temp);
+            if (compare(records, high * width, records, low * width,
+                width) < 0)
+                swap(records, high, low, width, temp);
+            if (compare(records, high * width, records, middle * width,
+                width) < 0)
+                swap(records, high, middle, width, temp);
+            System.arraycopy(records, middle * width, temp, width, width);
+
+            int i = low;
+            int j = high;
+            while (i <= j)
+            {
+                while (compare(records, i * width, temp, width, width) < 0)
+                    i++;
+                while (compare(records, j * width, temp, width, width) > 0)
+                    j--;
+                if (i <= j)
+                {
+                    swap(records, i, j, width, temp);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller part, and loop on the larger one.
+            if (j - low < high - i)
+            {
+                sort(records, low, j, width, temp);
+                low = i;
+            }
+            else
+            {
+                sort(records, i, high, width, temp);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++)
+        {
+            int j = i;
+            while (j > low && compare(records, (j - 1) * width, records,
+                j * width, width) > 0)
+            {
+                swap(records, j - 1, j, width, temp);
+                j--;
+            }
+        }
+    }
+
+    /**
+     * Helper method for sort - swap two records, using the first record of
+     * temp.
+     */
+    private static void swap(long[] records, int i, int j, int width,
+        long[] temp)
+    {
+        System.arraycopy(records, i * width, temp, 0, width);
+        System.arraycopy(records, j * width, records, i * width, width);
+        System.arraycopy(temp, 0, records, j * width, width);
+    }
+
+    /**
+     * Helper method - fill a buffer from a file, up to its limit.
+     *
+     * @param channel The file's channel.
+     * @param buffer The buffer.
+     * @param position The position in the file to read from.
+     * @throws EOFException if the file ends first.
+     */
+    private static void read(FileChannel channel, ByteBuffer buffer,
+        long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the records of a file, in order.
+     */
+    class Writer
+    {
+        private final RandomAccessFile m_output;
+        private final FileChannel m_channel;
+        private final ByteBuffer m_buffer =
+            ByteBuffer.allocate(m_bufferRecords * m_width * 8);
+        private final LongBuffer m_records = m_buffer.asLongBuffer();
+        private long m_written;
+
+        Writer() throws IOException
+        {
+            m_output = new RandomAccessFile(m_file, "rw");
+            m_output.setLength(0);
+            m_channel = m_output.getChannel();
+        }
+
+        /**
+         * Add a record.
+         *
+         * @param records The array the record is in.
+         * @param offset The index of the record in it.
+         */
+        void add(long[] records, int offset) throws IOException
+        {
+            if (!m_records.hasRemaining())
+                flush();
+            m_records.put(records, offset, m_width);
+            m_written++;
+        }
+
+        /**
+         * Finish writing: write the records still in the buffer.
+         */
+        void close() throws IOException
+        {
+            try
+            {
+                flush();
+                m_count = m_written;
+            }
+            finally
+            {
+                m_output.close();
+            }
+        }
+
+        /**
+         * Helper method - write the records in the buffer.
+         */
+        private void flush() throws IOException
+        {
+            m_buffer.clear();
+            m_buffer.limit(m_records.position() * 8);
+            while (m_buffer.hasRemaining())
+                m_channel.write(m_buffer);
+            m_records.clear();
+        }
+    }
+
+    /**
+     * Reads the records of a file, in order.
+     */
+    class Reader
+    {
+        private final RandomAccessFile m_input;
+        private final FileChannel m_channel;
+        private final long[] m_record = new long[m_width];
+        private final ByteBuffer m_buffer =
+            ByteBuffer.allocate(m_bufferRecords * m_width * 8);
+        private final LongBuffer m_records = m_buffer.asLongBuffer();
+        private long m_read;
+
+        Reader() throws IOException
+        {
+            m_input = new RandomAccessFile(m_file, "r");
+            m_channel = m_input.getChannel();
+            m_records.limit(0);
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return true if there was one; it's then in getRecord().
+         */
+        boolean next() throws IOException
+        {
+            if (m_read == m_count)
+                return false;
+            if (!m_records.hasRemaining())
+            {
+                int records = (int)Math.min(m_bufferRecords, m_count - m_read);
+                m_buffer.clear();
+                m_buffer.limit(records * m_width * 8);
+                read(m_channel, m_buffer, m_read * m_width * 8L);
+                m_records.clear();
+                m_records.limit(records * m_width);
+            }
+            m_records.get(m_record);
+            m_read++;
+            return true;
+        }
+
+        /**
+         * @return The last record read. The array is reused by next().
+         */
+        long[] getRecord()
+        {
+            return m_record;
+        }
+
+        void close() throws IOException
+        {
+            m_input.close();
+        }
+    }
+}
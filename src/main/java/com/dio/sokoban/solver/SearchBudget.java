@@ -0,0 +1,143 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The node and time budget of one solver run, shared by all the threads
+ * searching for it. Searches charge their nodes in batches, and check
+ * isStopped() on every node in between - which looks at the clock, since a
+ * batch of nodes can take a long time on a large level. They stop as soon
+ * as the budget is used up, the solver is cancelled, or one of them found a
+ * solution and stopped the others.
+ */
+class SearchBudget
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The solver, for its cancellation flag.
+     */
+    private final Solver m_solver;
+
+    /**
+     * The maximal number of nodes.
+     */
+    private final long m_nodeBudget;
+
+    /**
+     * The time at which the time budget runs out.
+     */
+    private final long m_deadline;
+
+    /**
+     * The number of nodes charged so far.
+     */
+    private final AtomicLong m_nodes = new AtomicLong();
+
+    /**
+     * Set when the searches should stop.
+     */
+    private volatile boolean m_stopped;
+
+    /**
+     * Set when the budget (rather than a found solution) stopped the
+     * searches.
+     */
+    private volatile boolean m_exceeded;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create the budget of a run starting now.
+     *
+     * @param solver The solver.
+     */
+    SearchBudget(Solver solver)
+    {
+        m_solver = solver;
+        m_nodeBudget = solver.getNodeBudget();
+        m_deadline = System.currentTimeMillis() + solver.getTimeBudget();
+    }
+
+    /**
+     * Charge nodes to the budget.
+     *
+     * @param nodes The number of nodes expanded since the last charge.
+     * @return true if the search may go on.
+     */
+    boolean charge(long nodes)
+    {
+        long total = m_nodes.addAndGet(nodes);
+        if (total > m_nodeBudget || m_solver.isCancelled() ||
+            System.currentTimeMillis() > m_deadline)
+        {
+            m_exceeded = true;
+            m_stopped = true;
+        }
+        return !m_stopped;
+    }
+
+    /**
+     * Stop all searches - say, because a solution was found.
+     */
+    void stop()
+    {
+        m_stopped = true;
+    }
+
+    /**
+     * @return true if the searches should stop. The time budget and the
+     * solver's cancellation are checked here as well, so a search reacts to
+     * either on its next node.
+     */
+    boolean isStopped()
+    {
+        if (!m_stopped && (m_solver.isCancelled() ||
+            System.currentTimeMillis() > m_deadline))
+        {
+            m_exceeded = true;
+            m_stopped = true;
+        }
+        return m_stopped;
+    }
+
+    /**
+     * @return true if the searches stopped because the budget ran out (or
+     * the solver was cancelled).
+     */
+    boolean isExceeded()
+    {
+        return m_exceeded;
+    }
+
+    /**
+     * @return The number of nodes charged.
+     */
+    long getNodes()
+    {
+        return m_nodes.get();
+    }
+}
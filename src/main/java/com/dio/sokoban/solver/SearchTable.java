@@ -0,0 +1,46 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+
+/**
+ * A transposition table of an IDA* iteration: it remembers the positions
+ * searched, and the fewest pushes each was reached with, so a position
+ * reached again with no fewer pushes is not searched again.
+ */
+interface SearchTable
+{
+    /**
+     * Record a visit to a board's current position.
+     *
+     * @param board The board.
+     * @param playerTopLeft The normalized player position (see StateKey).
+     * @param pushes The number of pushes the position was reached with.
+     * @return true if the position should be searched, false if it was
+     * already searched with no more pushes.
+     */
+    boolean visit(Board board, int playerTopLeft, int pushes);
+
+    /**
+     * Forget all positions, before a new iteration.
+     */
+    void clear();
+}
@@ -0,0 +1,166 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+/**
+ * The result of a solver run: whether a solution was found, the solution
+ * itself in LURD notation, and some statistics.
+ */
+public class Solution
+{
+    //
+    // Constants - result status.
+    //
+
+    /**
+     * A solution was found.
+     */
+    public final static int SOLVED = 0;
+
+    /**
+     * The search was completed, and the level has no solution - or, if the
+     * search used macro moves, it found none (see Solver.setMacroMoves()).
+     */
+    public final static int UNSOLVABLE = 1;
+
+    /**
+     * The search ran out of its node or time budget.
+     */
+    public final static int BUDGET_EXCEEDED = 2;
+
+    /**
+     * The search was cancelled.
+     */
+    public final static int CANCELLED = 3;
+
+    /**
+     * The search found a solution, but it couldn't be replayed as moves.
+     */
+    public final static int FAILED = 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The result status.
+     */
+    private final int m_status;
+
+    /**
+     * The solution in LURD notation, or null if no solution was found.
+     */
+    private final String m_lurd;
+
+    /**
+     * The number of search nodes expanded.
+     */
+    private final long m_nodes;
+
+    /**
+     * The time the search took, in milliseconds.
+     */
+    private final long m_timeMillis;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a result.
+     *
+     * @param status The result status.
+     * @param lurd The solution in LURD notation, or null.
+     * @param nodes The number of search nodes expanded.
+     * @param timeMillis The time the search took, in milliseconds.
+     */
+    public Solution(int status, String lurd, long nodes, long timeMillis)
+    {
+        m_status = status;
+        m_lurd = lurd;
+        m_nodes = nodes;
+        m_timeMillis = timeMillis;
+    }
+
+    /**
+     * @return The result status - one of the status constants.
+     */
+    public int getStatus()
+    {
+        return m_status;
+    }
+
+    /**
+     * @return true if a solution was found.
+     */
+    public boolean isSolved()
+    {
+        return m_status == SOLVED;
+    }
+
+    /**
+     * @return The solution in LURD notation, or null if no solution was
+     * found.
+     */
+    public String getLurd()
+    {
+        return m_lurd;
+    }
+
+    /**
+     * @return The number of moves in the solution, or -1.
+     */
+    public int getMoveCount()
+    {
+        return (m_lurd != null) ? m_lurd.length() : -1;
+    }
+
+    /**
+     * @return The number of pushes in the solution, or -1.
+     */
+    public int getPushCount()
+    {
+        if (m_lurd == null)
+            return -1;
+        int pushes = 0;
+        for (int i = 0; i < m_lurd.length(); i++)
+        {
+            if (Character.isUpperCase(m_lurd.charAt(i)))
+                pushes++;
+        }
+        return pushes;
+    }
+
+    /**
+     * @return The number of search nodes expanded.
+     */
+    public long getNodes()
+    {
+        return m_nodes;
+    }
+
+    /**
+     * @return The time the search took, in milliseconds.
+     */
+    public long getTimeMillis()
+    {
+        return m_timeMillis;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The solutions of the bundled levels, solved when the application is built
+ * (see the packSolutions build task) and shipped as one binary asset.
+ *
+ * The asset is a header - magic, version, level count - then an offset per
+ * level and one past the last, then the levels' data: a move count, and the
+ * moves' directions, 2 bits each, 4 to a byte. Pushes aren't stored, since
+ * replaying the moves on the board tells them apart. A level whose data is
+ * empty has no solution. The asset is mapped when it can be (it's stored
+ * uncompressed for that) and read in one go when it can't, and a lookup
+ * touches only its own level's bytes. The offsets and move counts are
+ * checked when the asset is opened, and a bad asset gives an empty cache.
+ */
+public class SolutionCache
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The name of the asset.
+     */
+    public final static String ASSET_NAME = "solutions.bin";
+
+    /**
+     * The header: magic, version, level count.
+     */
+    private final static int MAGIC = 0x534B5343;
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 12;
+
+    /**
+     * The number of moves in a byte of move data.
+     */
+    private final static int MOVES_PER_BYTE = 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The asset's contents, or null if there's none.
+     */
+    private final ByteBuffer m_buffer;
+
+    /**
+     * The number of levels in the asset.
+     */
+    private final int m_levelCount;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Helper constructor for the open methods.
+     */
+    private SolutionCache(ByteBuffer buffer)
+    {
+        int levelCount = 0;
+        if (buffer != null && buffer.capacity() >= HEADER_SIZE &&
+            buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION)
+        {
+            levelCount = buffer.getInt(8);
+            if (levelCount < 0 ||
+                buffer.capacity() < HEADER_SIZE + (levelCount + 1) * 4L ||
+                !isValid(buffer, levelCount))
+                levelCount = 0;
+        }
+        m_buffer = (levelCount > 0) ? buffer : null;
+        m_levelCount = levelCount;
+    }
+
+    /**
+     * Open the cache asset. A missing or unreadable asset gives an empty
+     * cache.
+     *
+     * @param assets The application's asset manager.
+     * @return The cache.
+     */
+    public static SolutionCache open(AssetManager assets)
+    {
+        try
+        {
+            AssetFileDescriptor descriptor = assets.openFd(ASSET_NAME);
+            try
+            {
+                FileInputStream input =
+                    new FileInputStream(descriptor.getFileDescriptor());
+                FileChannel channel = input.getChannel();
+                return new SolutionCache(channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength()));
+            }
+            finally
+            {
+                // The mapping stays valid after the file is closed.
+                descriptor.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // A compressed asset can't be mapped - read it instead.
+        }
+
+        try
+        {
+            InputStream input = assets.open(ASSET_NAME);
+            try
+            {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = input.read(buffer)) > 0)
+                    contents.write(buffer, 0, count);
+                return new SolutionCache(
+                    ByteBuffer.wrap(contents.toByteArray()));
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return new SolutionCache(null);
+        }
+    }
+
+    /**
+     * Open a cache file, mapping it into memory. A missing or unreadable
+     * file gives an empty cache.
+     *
+     * @param file The file.
+     * @return The cache.
+     */
+    public static SolutionCache open(File file)
+    {
+        try
+        {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel channel = input.getChannel();
+                return new SolutionCache(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return new SolutionCache(null);
+        }
+    }
+
+    /**
+     * Write a cache file.
+     *
+     * @param file The file.
+     * @param solutions The solution of each level in LURD notation, level 1
+     * first, or null for a level with no solution.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(File file, String[] solutions) throws IOException
+    {
+        int levelCount = solutions.length;
+        DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(levelCount);
+            int offset = HEADER_SIZE + (levelCount + 1) * 4;
+            for (int i = 0; i < levelCount; i++)
+            {
+                output.writeInt(offset);
+                offset += getDataSize(solutions[i]);
+            }
+            output.writeInt(offset);
+
+            for (int i = 0; i < levelCount; i++)
+            {
+                String lurd = solutions[i];
+                if (lurd == null)
+                    continue;
+                output.writeInt(lurd.length());
+                byte[] moves = new byte[getDataSize(lurd) - 4];
+                for (int j = 0; j < lurd.length(); j++)
+                {
+                    int dir = Move.getStepDir(Move.fromLurd(lurd.charAt(j)));
+                    moves[j / MOVES_PER_BYTE] |=
+                        dir << ((j % MOVES_PER_BYTE) * 2);
+                }
+                output.write(moves);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * @return The number of levels in the cache.
+     */
+    public int getLevelCount()
+    {
+        return m_levelCount;
+    }
+
+    /**
+     * @return true if the cache has a solution of the given level.
+     */
+    public boolean hasSolution(int level)
+    {
+        return level >= 1 && level <= m_levelCount &&
+            getOffset(level + 1) > getOffset(level);
+    }
+
+    /**
+     * Get the moves of a level's solution.
+     *
+     * @param level The level.
+     * @return The direction of each move, or null if there's no solution.
+     */
+    public int[] getMoves(int level)
+    {
+        if (!hasSolution(level))
+            return null;
+        int offset = getOffset(level);
+        int count = m_buffer.getInt(offset);
+        int[] moves = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            int data = m_buffer.get(offset + 4 + i / MOVES_PER_BYTE);
+            moves[i] = (data >>> ((i % MOVES_PER_BYTE) * 2)) & 3;
+        }
+        return moves;
+    }
+
+    /**
+     * Get a level's solution in LURD notation, by replaying its moves.
+     *
+     * @param level The level.
+     * @param start The level's board, in the start position. It's not
+     * changed.
+     * @return The solution, or null if there's none, or it doesn't fit the
+     * board.
+     */
+    public String getLurd(int level, Board start)
+    {
+        int[] moves = getMoves(level);
+        if (moves == null)
+            return null;
+        Board board = start.fork();
+        StringBuffer lurd = new StringBuffer(moves.length);
+        for (int i = 0; i < moves.length; i++)
+        {
+            int step = board.step(moves[i]);
+            if (step == Move.STEP_ILLEGAL)
+                return null;
+            lurd.append(Move.toLurd(step));
+        }
+        return board.isSolved() ? lurd.toString() : null;
+    }
+
+    /**
+     * Helper method - the offset of a level's data. The offset of the level
+     * after the last is the end of the data.
+     */
+    private int getOffset(int level)
+    {
+        return m_buffer.getInt(HEADER_SIZE + (level - 1) * 4);
+    }
+
+    /**
+     * Helper method for the constructor - check that the offsets run in
+     * order from the end of the offset table to at most the end of the
+     * buffer, and that each level's move count fits its data.
+     *
+     * @param buffer The asset's contents. It's large enough for the offset
+     * table.
+     * @param levelCount The number of levels.
+     */
+    private static boolean isValid(ByteBuffer buffer, int levelCount)
+    {
+        long previous = HEADER_SIZE + (levelCount + 1) * 4L;
+        for (int level = 1; level <= levelCount + 1; level++)
+        {
+            int offset = buffer.getInt(HEADER_SIZE + (level - 1) * 4);
+            if (offset < previous || offset > buffer.capacity())
+                return false;
+            if (level > 1 && offset > previous)
+            {
+                int size = (int)(offset - previous);
+                if (size < 4)
+                    return false;
+                int count = buffer.getInt((int)previous);
+                if (count < 0 || 4 + (count + MOVES_PER_BYTE - 1L) /
+                    MOVES_PER_BYTE > size)
+                    return false;
+            }
+            previous = offset;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method for write - the size of a solution's data.
+     */
+    private static int getDataSize(String lurd)
+    {
+        if (lurd == null)
+            return 0;
+        return 4 + (lurd.length() + MOVES_PER_BYTE - 1) / MOVES_PER_BYTE;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.PathFinder;
+import com.dio.sokoban.Reachability;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Improves a finished solution, typically the one the player just played:
+ *
+ * - Push cycles are cut out. Whenever the pushes bring the boxes back to
+ *   where they were earlier, with the player in the same area, every push
+ *   in between is dropped.
+ * - Runs of pushes of one box are reordered. Two neighbouring runs of
+ *   different boxes are swapped when that's legal and makes the walks
+ *   around them shorter; a run can keep moving back this way, over several
+ *   passes.
+ * - The walks between pushes are planned again as shortest walks.
+ *
+ * None of this searches, so it's linear in the solution length, give or
+ * take the walk searches. The result is replayed before it's returned, and
+ * the given solution is kept if the result isn't valid or isn't better.
+ * Not thread safe - use one optimizer per thread.
+ */
+public class SolutionOptimizer
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The largest number of passes over the runs of pushes.
+     */
+    private final static int MAX_REORDER_PASSES = 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The walk searches.
+     */
+    private final PathFinder m_pathFinder = new PathFinder();
+
+    /**
+     * The player's area, for the position keys.
+     */
+    private final Reachability m_reachability = new Reachability();
+
+    /**
+     * The walk directions of the last walk search.
+     */
+    private int[] m_walk = new int[0];
+
+    /**
+     * The square of the box moved by each push.
+     */
+    private int[] m_boxes = new int[0];
+
+    /**
+     * The direction of each push.
+     */
+    private int[] m_dirs = new int[0];
+
+    /**
+     * The number of pushes.
+     */
+    private int m_count;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Optimize a solution.
+     *
+     * @param start The level's board, in the start position. It's not
+     * changed.
+     * @param steps The solution, as step codes (see Move).
+     * @param count The number of steps.
+     * @return The optimized solution, which has fewer moves than the given
+     * one, or as many moves and fewer pushes - or the given solution itself,
+     * if it can't be improved. null if the steps don't solve the level.
+     */
+    public Solution optimize(Board start, int[] steps, int count)
+    {
+        long startTime = System.currentTimeMillis();
+        StringBuffer given = new StringBuffer(count);
+        if (!readPushes(start, steps, count, given))
+            return null;
+
+        removeCycles(start);
+        for (int pass = 0; pass < MAX_REORDER_PASSES; pass++)
+        {
+            if (!reorderRuns(start))
+                break;
+        }
+
+        String lurd = Solver.toLurd(start, m_boxes, m_dirs, m_count);
+        if (lurd == null ||
+            new SolutionVerifier().verify(start, lurd) !=
+                SolutionVerifier.SOLVED ||
+            lurd.length() > count ||
+            (lurd.length() == count && m_count >= countPushes(given)))
+            lurd = given.toString();
+        return new Solution(Solution.SOLVED, lurd, 0,
+            System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Helper method - replay the steps, and keep their pushes.
+     *
+     * @param lurd The buffer to write the steps to, in LURD notation.
+     * @return true if the steps are legal, and solve the level.
+     */
+    private boolean readPushes(Board start, int[] steps, int count,
+        StringBuffer lurd)
+    {
+        Board board = start.fork();
+        m_walk = new int[board.getSquareCount()];
+        m_boxes = new int[16];
+        m_dirs = new int[16];
+        m_count = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int dir = Move.getStepDir(steps[i]);
+            int box = board.getPlayerPos() + board.getDirOffset(dir);
+            if (board.step(dir) != steps[i])
+                return false;
+            lurd.append(Move.toLurd(steps[i]));
+            if (!Move.isPush(steps[i]))
+                continue;
+            if (m_count == m_boxes.length)
+            {
+                m_boxes = grow(m_boxes);
+                m_dirs = grow(m_dirs);
+            }
+            m_boxes[m_count] = box;
+            m_dirs[m_count] = dir;
+            m_count++;
+        }
+        return board.isSolved();
+    }
+
+    /**
+     * Helper method - drop the pushes between two visits of the same
+     * position. The player only has to be in the same area, since the walks
+     * are planned again anyway.
+     */
+    private void removeCycles(Board start)
+    {
+        Board board = start.fork();
+        long[] keys = new long[m_count + 1];
+        Map<Long, Integer> seen = new HashMap<Long, Integer>();
+        keys[0] = getKey(board);
+        seen.put(Long.valueOf(keys[0]), Integer.valueOf(0));
+
+        int kept = 0;
+        for (int i = 0; i < m_count; i++)
+        {
+            int box = m_boxes[i];
+            int dir = m_dirs[i];
+            board.placePlayer(box - board.getDirOffset(dir));
+            board.step(dir);
+            m_boxes[kept] = box;
+            m_dirs[kept] = dir;
+            kept++;
+
+            long key = getKey(board);
+            Integer earlier = seen.get(Long.valueOf(key));
+            if (earlier == null)
+            {
+                keys[kept] = key;
+                seen.put(Long.valueOf(key), Integer.valueOf(kept));
+                continue;
+            }
+            // Back to an earlier position: forget the positions since.
+            for (int j = earlier.intValue() + 1; j < kept; j++)
+                seen.remove(Long.valueOf(keys[j]));
+            kept = earlier.intValue();
+        }
+        m_count = kept;
+    }
+
+    /**
+     * Helper method - do a pass over the runs of pushes, swapping
+     * neighbouring runs where that shortens the walks.
+     *
+     * @return true if any runs were swapped.
+     */
+    private boolean reorderRuns(Board start)
+    {
+        Board board = start.fork();
+        boolean swapped = false;
+        int first = 0;
+        while (first < m_count)
+        {
+            int second = getRunEnd(board, first);
+            if (second == m_count)
+                break;
+            int end = getRunEnd(board, second);
+
+            // The runs move different boxes, or they'd be one run.
+            Board.Snapshot before = board.snapshot();
+            int cost = getCost(board, first, end);
+            board.restore(before);
+            rotate(first, second, end);
+            int swappedCost = getCost(board, first, end);
+            board.restore(before);
+            if (swappedCost >= 0 && swappedCost < cost)
+            {
+                swapped = true;
+                // The second run is first now.
+                second = first + (end - second);
+            }
+            else
+            {
+                rotate(first, first + (end - second), end);
+            }
+
+            play(board, first, second);
+            first = second;
+        }
+        return swapped;
+    }
+
+    /**
+     * Helper method - get the end of the run of pushes which starts at a
+     * push: the pushes which each push the box on from where the previous
+     * one left it.
+     */
+    private int getRunEnd(Board board, int first)
+    {
+        int end = first + 1;
+        while (end < m_count && m_boxes[end] ==
+            m_boxes[end - 1] + board.getDirOffset(m_dirs[end - 1]))
+            end++;
+        return end;
+    }
+
+    /**
+     * Helper method - play pushes, and the walks before them and the walk
+     * to the push after them.
+     *
+     * @return The number of moves, or -1 if the pushes aren't legal.
+     */
+    private int getCost(Board board, int first, int end)
+    {
+        int cost = play(board, first, end);
+        if (cost < 0 || end == m_count)
+            return cost;
+        int walk = m_pathFinder.findWalk(board,
+            m_boxes[end] - board.getDirOffset(m_dirs[end]), m_walk);
+        return (walk >= 0) ? cost + walk : -1;
+    }
+
+    /**
+     * Helper method - play pushes, and the walks before them.
+     *
+     * @return The number of moves, or -1 if the pushes aren't legal.
+     */
+    private int play(Board board, int first, int end)
+    {
+        int cost = 0;
+        for (int i = first; i < end; i++)
+        {
+            int dir = m_dirs[i];
+            int player = m_boxes[i] - board.getDirOffset(dir);
+            int walk = m_pathFinder.findWalk(board, player, m_walk);
+            if (walk < 0)
+                return -1;
+            board.placePlayer(player);
+            if (board.step(dir) != (dir | Move.STEP_PUSH))
+                return -1;
+            cost += walk + 1;
+        }
+        return cost;
+    }
+
+    /**
+     * Helper method - swap the pushes [first, middle) with the pushes
+     * [middle, end).
+     */
+    private void rotate(int first, int middle, int end)
+    {
+        reverse(first, middle);
+        reverse(middle, end);
+        reverse(first, end);
+    }
+
+    /**
+     * Helper method - reverse the order of the pushes [first, end).
+     */
+    private void reverse(int first, int end)
+    {
+        for (int i = first, j = end - 1; i < j; i++, j--)
+        {
+            int box = m_boxes[i];
+            m_boxes[i] = m_boxes[j];
+            m_boxes[j] = box;
+            int dir = m_dirs[i];
+            m_dirs[i] = m_dirs[j];
+            m_dirs[j] = dir;
+        }
+    }
+
+    /**
+     * Helper method - the key of a position: the boxes, and the player's
+     * area.
+     */
+    private long getKey(Board board)
+    {
+        m_reachability.compute(board);
+        return board.stateHash(m_reachability.getTopLeft());
+    }
+
+    /**
+     * Helper method - count the pushes of a solution in LURD notation.
+     */
+    private static int countPushes(CharSequence lurd)
+    {
+        int pushes = 0;
+        for (int i = 0; i < lurd.length(); i++)
+        {
+            if (Character.isUpperCase(lurd.charAt(i)))
+                pushes++;
+        }
+        return pushes;
+    }
+
+    /**
+     * Helper method - double the size of an array.
+     */
+    private static int[] grow(int[] array)
+    {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Checks solutions in LURD notation by replaying them on the level's board,
+ * with the same rules as the game's moves (see Board.step()). An upper case
+ * letter must push a box, and a lower case one must not.
+ *
+ * A verifier keeps a working board per level, forked from the level's start
+ * board the first time the level is seen, and reset to the start position
+ * for each solution - so once every level was seen, a check allocates
+ * nothing. Not thread safe: use one per thread. The start boards may be
+ * shared by all of them.
+ */
+public class SolutionVerifier
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The result of a legal solution which solves the level.
+     */
+    public final static int SOLVED = -1;
+
+    /**
+     * The result of a sequence of legal moves which doesn't solve the level.
+     */
+    public final static int NOT_SOLVED = -2;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The working board of each level, by the level's start board.
+     */
+    private final Map<Board, Board> m_boards =
+        new IdentityHashMap<Board, Board>();
+
+    /**
+     * The start position of each working board.
+     */
+    private final Map<Board, Board.Snapshot> m_starts =
+        new IdentityHashMap<Board, Board.Snapshot>();
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Check a solution.
+     *
+     * @param start The level's board, in the start position. It's not
+     * changed, and may be shared between threads as long as it isn't.
+     * @param lurd The moves, in LURD notation.
+     * @return SOLVED, NOT_SOLVED, or the index of the first illegal move (or
+     * of the first character which isn't a LURD letter).
+     */
+    public int verify(Board start, CharSequence lurd)
+    {
+        Board board = m_boards.get(start);
+        if (board == null)
+        {
+            board = start.fork();
+            m_boards.put(start, board);
+            m_starts.put(board, board.snapshot());
+        }
+        else
+        {
+            board.restore(m_starts.get(board));
+        }
+
+        int length = lurd.length();
+        for (int i = 0; i < length; i++)
+        {
+            int step = Move.fromLurd(lurd.charAt(i));
+            if (step == Move.STEP_ILLEGAL ||
+                board.step(Move.getStepDir(step)) != step)
+                return i;
+        }
+        return board.isSolved() ? SOLVED : NOT_SOLVED;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.Move;
+import com.dio.sokoban.PathFinder;
+
+/**
+ * The base class of the level solvers. A solver works on a fork of the board
+ * it's given, so the caller's board is never changed, and it stops when it
+ * runs out of its node or time budget, or when it's cancelled from another
+ * thread.
+ */
+public abstract class Solver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default node budget.
+     */
+    public final static long DEFAULT_NODE_BUDGET = 5000000;
+
+    /**
+     * The default time budget, in milliseconds.
+     */
+    public final static long DEFAULT_TIME_BUDGET = 30000;
+
+    /**
+     * The default memory budget of the transposition table, in bytes.
+     */
+    public final static int DEFAULT_TABLE_MEMORY = 8 * 1024 * 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The maximal number of nodes to expand.
+     */
+    private long m_nodeBudget = DEFAULT_NODE_BUDGET;
+
+    /**
+     * The maximal time to search, in milliseconds.
+     */
+    private long m_timeBudget = DEFAULT_TIME_BUDGET;
+
+    /**
+     * The memory budget of the transposition table, in bytes.
+     */
+    private int m_tableMemory = DEFAULT_TABLE_MEMORY;
+
+    /**
+     * Whether to use macro moves.
+     */
+    private boolean m_macroMoves = true;
+
+    /**
+     * The deadlock pattern database, or null.
+     */
+    private DeadlockPatterns m_deadlockPatterns;
+
+    /**
+     * Set (from any thread) to stop the search.
+     */
+    private volatile boolean m_cancelled;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Solve a board's current position.
+     *
+     * @param board The board. It's not changed.
+     * @return The result.
+     */
+    public abstract Solution solve(Board board);
+
+    /**
+     * Set the maximal number of search nodes to expand.
+     */
+    public void setNodeBudget(long nodeBudget)
+    {
+        m_nodeBudget = nodeBudget;
+    }
+
+    /**
+     * @return The maximal number of search nodes to expand.
+     */
+    public long getNodeBudget()
+    {
+        return m_nodeBudget;
+    }
+
+    /**
+     * Set the maximal time to search, in milliseconds.
+     */
+    public void setTimeBudget(long timeBudgetMillis)
+    {
+        m_timeBudget = timeBudgetMillis;
+    }
+
+    /**
+     * @return The maximal time to search, in milliseconds.
+     */
+    public long getTimeBudget()
+    {
+        return m_timeBudget;
+    }
+
+    /**
+     * Set the memory budget of the transposition table, in bytes. The table
+     * is allocated once per solve, and never grows.
+     */
+    public void setTableMemory(int tableMemoryBytes)
+    {
+        m_tableMemory = tableMemoryBytes;
+    }
+
+    /**
+     * @return The memory budget of the transposition table, in bytes.
+     */
+    public int getTableMemory()
+    {
+        return m_tableMemory;
+    }
+
+    /**
+     * Set whether the search should use macro moves - tunnels and goal
+     * rooms (see MacroMoves). They make the search much faster on levels
+     * which have them, but a solution found with them may have a few more
+     * pushes than the fewest possible. A goal room macro also replaces the
+     * single pushes into the room, so the search may miss every solution,
+     * and an UNSOLVABLE result is not a proof while they're on. On by
+     * default.
+     */
+    public void setMacroMoves(boolean macroMoves)
+    {
+        m_macroMoves = macroMoves;
+    }
+
+    /**
+     * @return Whether the search uses macro moves.
+     */
+    public boolean getMacroMoves()
+    {
+        return m_macroMoves;
+    }
+
+    /**
+     * Set the deadlock pattern database. The search looks up the windows
+     * around every pushed box in it, and adds the deadlocked windows it
+     * proves along the way; the caller may save it afterwards.
+     *
+     * @param deadlockPatterns The database, or null for none.
+     */
+    public void setDeadlockPatterns(DeadlockPatterns deadlockPatterns)
+    {
+        m_deadlockPatterns = deadlockPatterns;
+    }
+
+    /**
+     * @return The deadlock pattern database, or null.
+     */
+    public DeadlockPatterns getDeadlockPatterns()
+    {
+        return m_deadlockPatterns;
+    }
+
+    /**
+     * Helper method for subclasses - analyze the macro moves of a level, if
+     * they're used.
+     *
+     * @return The macro moves, or null.
+     */
+    protected MacroMoves createMacroMoves(Board board, PushDistances distances)
+    {
+        return m_macroMoves ? new MacroMoves(board, distances) : null;
+    }
+
+    /**
+     * Helper method for subclasses - start a run, and create its budget. A
+     * cancellation isn't forgotten here, so a solver cancelled before its
+     * run started returns at once.
+     */
+    SearchBudget startRun()
+    {
+        return new SearchBudget(this);
+    }
+
+    /**
+     * Stop the current search, or the next one if none is running. May be
+     * called from any thread; the search sees it on its next node, and
+     * returns a CANCELLED result. The solver stays cancelled until reset().
+     */
+    public void cancel()
+    {
+        m_cancelled = true;
+    }
+
+    /**
+     * Forget an earlier cancel(), so the solver can be reused. Should be
+     * called by whoever hands the run to the thread which solves, before
+     * handing it over - so a cancel() made in between isn't lost.
+     */
+    public void reset()
+    {
+        m_cancelled = false;
+    }
+
+    /**
+     * @return true if cancel() was called.
+     */
+    public boolean isCancelled()
+    {
+        return m_cancelled;
+    }
+
+    /**
+     * Helper method for subclasses - create the result of a run. A solution
+     * which can't be replayed as moves (lurd is null) is reported as FAILED
+     * rather than SOLVED, so callers never get a solved result without its
+     * moves.
+     *
+     * @param status The status of the search.
+     * @param lurd The solution in LURD notation, or null.
+     * @param budget The run's budget.
+     * @param startTime The time the run started at.
+     */
+    Solution createSolution(int status, String lurd, SearchBudget budget,
+        long startTime)
+    {
+        if (status == Solution.SOLVED && lurd == null)
+            status = Solution.FAILED;
+        return new Solution(status, lurd, budget.getNodes(),
+            System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Helper method for subclasses - the status to return for a search
+     * which was stopped before it was done.
+     */
+    protected int stoppedStatus()
+    {
+        return m_cancelled ? Solution.CANCELLED : Solution.BUDGET_EXCEEDED;
+    }
+
+    /**
+     * Turn a sequence of pushes into a full solution in LURD notation, by
+     * replaying them from the start position with shortest walks between
+     * them.
+     *
+     * @param start The board, in the start position. It's not changed.
+     * @param boxes The square of the box moved by each push.
+     * @param dirs The direction of each push.
+     * @param count The number of pushes.
+     * @return The solution, or null if the pushes can't be replayed.
+     */
+    public static String toLurd(Board start, int[] boxes, int[] dirs,
+        int count)
+    {
+        Board board = start.fork();
+        PathFinder pathFinder = new PathFinder();
+        int[] walk = new int[board.getSquareCount()];
+        StringBuffer lurd = new StringBuffer();
+        for (int i = 0; i < count; i++)
+        {
+            int player = boxes[i] - board.getDirOffset(dirs[i]);
+            int walkLength = pathFinder.findWalk(board, player, walk);
+            if (walkLength < 0)
+                return null;
+            for (int j = 0; j < walkLength; j++)
+                lurd.append(Move.toLurd(board.step(walk[j])));
+
+            int step = board.step(dirs[i]);
+            if (step == Move.STEP_ILLEGAL || !Move.isPush(step))
+                return null;
+            lurd.append(Move.toLurd(step));
+        }
+        return lurd.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the worker threads of the multi-threaded solvers, and of the tools
+ * which run solvers in parallel: daemon threads, so a running search never
+ * keeps the application alive, with a large stack, since the depth-first
+ * searches recurse once per push.
+ */
+public class SolverThreadFactory implements ThreadFactory
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The stack size of the worker threads.
+     */
+    private final static long STACK_SIZE = 16 * 1024 * 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The number of threads created so far.
+     */
+    private int m_count;
+
+    //
+    // Operations.
+    //
+
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(null, runnable, "solver-" + (++m_count),
+            STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
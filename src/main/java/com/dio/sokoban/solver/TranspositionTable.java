@@ -0,0 +1,185 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.dio.sokoban.solver;
+
+import com.dio.sokoban.Board;
+
+import java.util.Arrays;
+
+/**
+ * A transposition table of fixed size, keyed by the 64-bit hash of a
+ * position (see Board.stateHash(int)). Each entry is packed into one long:
+ * the upper 48 bits of the hash as a check, and the number of pushes the
+ * position was reached with in the lower 16 bits, so the table creates no
+ * objects and never grows past its memory budget.
+ *
+ * The entries are grouped into buckets of BUCKET_SIZE slots, and a position
+ * may only be stored in the bucket its hash selects. When its bucket is
+ * full, a new position replaces the entry reached with the most pushes, if
+ * that's more than its own: entries near the root of the search have the
+ * largest subtrees below them, so they're the most valuable to keep.
+ *
+ * Two positions which share the bucket and the check bits are taken to be
+ * the same. With 64-bit hashes this is rare enough to ignore, but it may
+ * cut a branch of the search wrongly.
+ */
+class TranspositionTable implements SearchTable
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of slots in a bucket.
+     */
+    private final static int BUCKET_SIZE = 4;
+
+    /**
+     * The number of locks of a concurrent table.
+     */
+    private final static int LOCK_COUNT = 64;
+
+    /**
+     * The bits of an entry which hold the pushes.
+     */
+    private final static long PUSHES_MASK = 0xFFFF;
+
+    /**
+     * The bits of an entry (and a hash) which are the check.
+     */
+    private final static long CHECK_MASK = ~PUSHES_MASK;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The entries. 0 is an empty slot.
+     */
+    private final long[] m_entries;
+
+    /**
+     * The mask of a hash which selects the first slot of its bucket.
+     */
+    private final int m_bucketMask;
+
+    /**
+     * The locks of the buckets, if this is a concurrent table (bucket i is
+     * guarded by lock i % LOCK_COUNT), null otherwise.
+     */
+    private final Object[] m_locks;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a table.
+     *
+     * @param memoryBytes The memory budget. The table takes the largest
+     * power of two number of entries which fits in it, but at least one
+     * bucket.
+     * @param concurrent true if the table is shared by several threads.
+     */
+    TranspositionTable(int memoryBytes, boolean concurrent)
+    {
+        int slots = Integer.highestOneBit(Math.max(memoryBytes / 8,
+            BUCKET_SIZE));
+        m_entries = new long[slots];
+        m_bucketMask = (slots - 1) & ~(BUCKET_SIZE - 1);
+        if (concurrent)
+        {
+            m_locks = new Object[LOCK_COUNT];
+            for (int i = 0; i < LOCK_COUNT; i++)
+                m_locks[i] = new Object();
+        }
+        else
+        {
+            m_locks = null;
+        }
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    int getCapacity()
+    {
+        return m_entries.length;
+    }
+
+    @Override
+    public boolean visit(Board board, int playerTopLeft, int pushes)
+    {
+        long hash = board.stateHash(playerTopLeft);
+        int bucket = (int)hash & m_bucketMask;
+        if (m_locks == null)
+            return visit(bucket, hash & CHECK_MASK, pushes);
+        synchronized (m_locks[(bucket / BUCKET_SIZE) % LOCK_COUNT])
+        {
+            return visit(bucket, hash & CHECK_MASK, pushes);
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(m_entries, 0);
+    }
+
+    /**
+     * Helper method - look up and record a position in its bucket.
+     */
+    private boolean visit(int bucket, long check, int pushes)
+    {
+        // Stored pushes are offset by one so no entry is 0; pushes beyond
+        // the 16 bits aren't stored at all.
+        long storedPushes = pushes + 1;
+        if (storedPushes > PUSHES_MASK)
+            return true;
+        long entry = check | storedPushes;
+
+        int victim = -1;
+        long victimPushes = storedPushes;
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++)
+        {
+            long seen = m_entries[slot];
+            if (seen == 0)
+            {
+                m_entries[slot] = entry;
+                return true;
+            }
+            if ((seen & CHECK_MASK) == check)
+            {
+                if ((seen & PUSHES_MASK) <= storedPushes)
+                    return false;
+                m_entries[slot] = entry;
+                return true;
+            }
+            if ((seen & PUSHES_MASK) > victimPushes)
+            {
+                victim = slot;
+                victimPushes = seen & PUSHES_MASK;
+            }
+        }
+        if (victim >= 0)
+            m_entries[victim] = entry;
+        return true;
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.tools;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.solver.BidirectionalSolver;
+import com.dio.sokoban.solver.DeadlockPatterns;
+import com.dio.sokoban.solver.ExternalBfsSolver;
+import com.dio.sokoban.solver.IdaStarSolver;
+import com.dio.sokoban.solver.ParallelIdaStarSolver;
+import com.dio.sokoban.solver.Solution;
+import com.dio.sokoban.solver.Solver;
+import com.dio.sokoban.solver.SolverThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Solves the levels of a directory in parallel, and writes a report with a
+ * row per level: its status, the solution's moves and pushes, the nodes
+ * expanded, the wall time and the peak heap use. Runs on a plain JVM:
+ *
+ *   BatchSolver [options] levels-directory
+ *
+ * Options:
+ *   -threads N       the number of levels solved at once (default: one per
+ *                    processor)
+ *   -seconds N       the time budget of a level (default 30)
+ *   -nodes N         the node budget of a level (default: the solver's)
+ *   -memory N        the table memory budget of a level, in megabytes
+ *                    (default: the solver's)
+ *   -solver NAME     ida, parallel, bidirectional or bfs (default ida)
+ *   -levels A-B      the levels to solve (default: all)
+ *   -format FORMAT   csv or json (default csv)
+ *   -output FILE     the report file (default: standard output)
+ *   -inval LIST      the levels listed as invalid: numbers separated by
+ *                    commas, or @FILE for the INVAL_LEVELS resource of an
+ *                    XML resource file
+ *   -patterns FILE   the deadlock pattern database the solvers use; it's
+ *                    opened before the run, and saved with the patterns
+ *                    learned after it (default: none)
+ *
+ * The listed invalid levels are checked against the results: a summary on
+ * standard error names the listed levels which were solved, and the levels
+ * not listed which can't be read or were proved unsolvable. The solvers use
+ * macro moves, with which a search that finds no solution proves nothing
+ * (see Solver.setMacroMoves()), so such levels are reported as "notfound",
+ * and left out of the summary.
+ *
+ * The peak heap use is that of the whole JVM while the level was solved. It's
+ * the level's own only when one level is solved at a time.
+ */
+public class BatchSolver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default time budget of a level, in seconds.
+     */
+    private final static int DEFAULT_SECONDS = 30;
+
+    /**
+     * The status of a level which couldn't be read, beside the solution
+     * statuses.
+     */
+    private final static int UNREADABLE = -1;
+
+    /**
+     * The status of a level whose search with macro moves found no solution,
+     * which doesn't prove it unsolvable.
+     */
+    private final static int NOT_FOUND = -2;
+
+    /**
+     * The report columns.
+     */
+    private final static String[] COLUMNS = { "level", "status", "inval",
+        "moves", "pushes", "nodes", "millis", "peakHeapBytes" };
+
+    //
+    // Members.
+    //
+
+    private int m_threads = Runtime.getRuntime().availableProcessors();
+    private long m_timeBudget = DEFAULT_SECONDS * 1000L;
+    private long m_nodeBudget = Solver.DEFAULT_NODE_BUDGET;
+    private int m_tableMemory = Solver.DEFAULT_TABLE_MEMORY;
+    private String m_solver = "ida";
+    private int m_firstLevel = 1;
+    private int m_lastLevel = Integer.MAX_VALUE;
+    private boolean m_json;
+    private File m_output;
+    private Set<Integer> m_invalLevels = new TreeSet<Integer>();
+    private File m_directory;
+    private File m_patternsFile;
+    private DeadlockPatterns m_deadlockPatterns;
+
+    //
+    // Operations.
+    //
+
+    public static void main(String[] args) throws Exception
+    {
+        BatchSolver batch = new BatchSolver();
+        try
+        {
+            batch.parseArgs(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BatchSolver [-threads N] " +
+                "[-seconds N] [-nodes N] [-memory N] [-solver ida|parallel|" +
+                "bidirectional|bfs] [-levels A-B] [-format csv|json] " +
+                "[-output FILE] [-inval LIST|@FILE] [-patterns FILE] " +
+                "levels-directory");
+            System.exit(2);
+        }
+        batch.run();
+    }
+
+    /**
+     * Helper method - parse the command line.
+     *
+     * @throws IllegalArgumentException if it's wrong.
+     */
+    private void parseArgs(String[] args) throws IOException
+    {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2)
+        {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value of " +
+                    args[i]);
+            String value = args[i + 1];
+            if (args[i].equals("-threads"))
+                m_threads = parsePositive(value);
+            else if (args[i].equals("-seconds"))
+                m_timeBudget = parsePositive(value) * 1000L;
+            else if (args[i].equals("-nodes"))
+                m_nodeBudget = parsePositive(value);
+            else if (args[i].equals("-memory"))
+                m_tableMemory = parseMegabytes(value);
+            else if (args[i].equals("-solver"))
+                m_solver = value;
+            else if (args[i].equals("-levels"))
+                parseLevels(value);
+            else if (args[i].equals("-format"))
+                m_json = parseFormat(value);
+            else if (args[i].equals("-output"))
+                m_output = new File(value);
+            else if (args[i].equals("-inval"))
+                parseInvalLevels(value);
+            else if (args[i].equals("-patterns"))
+                m_patternsFile = new File(value);
+            else
+                throw new IllegalArgumentException("Unknown option " +
+                    args[i]);
+        }
+        if (i != args.length - 1)
+            throw new IllegalArgumentException("Missing levels directory");
+        m_directory = new File(args[i]);
+        // Fail now, rather than on the worker threads, on a bad solver name.
+        createSolver();
+    }
+
+    /**
+     * Helper method - parse a positive number option.
+     */
+    private static int parsePositive(String value)
+    {
+        try
+        {
+            int number = Integer.parseInt(value);
+            if (number > 0)
+                return number;
+        }
+        catch (NumberFormatException e)
+        {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Bad number " + value);
+    }
+
+    /**
+     * Helper method - parse a memory size option, in megabytes.
+     *
+     * @return The size, in bytes.
+     */
+    private static int parseMegabytes(String value)
+    {
+        int megabytes = parsePositive(value);
+        if (megabytes > Integer.MAX_VALUE >> 20)
+            throw new IllegalArgumentException("Too large: " + value);
+        return megabytes << 20;
+    }
+
+    /**
+     * Helper method - parse the report format option.
+     *
+     * @return true for JSON, false for CSV.
+     */
+    private static boolean parseFormat(String value)
+    {
+        if (value.equals("json"))
+            return true;
+        if (value.equals("csv"))
+            return false;
+        throw new IllegalArgumentException("Unknown format " + value);
+    }
+
+    /**
+     * Helper method - parse the level range option.
+     */
+    private void parseLevels(String value)
+    {
+        int dash = value.indexOf('-');
+        if (dash < 0)
+        {
+            m_firstLevel = parsePositive(value);
+            m_lastLevel = m_firstLevel;
+        }
+        else
+        {
+            m_firstLevel = parsePositive(value.substring(0, dash));
+            m_lastLevel = parsePositive(value.substring(dash + 1));
+        }
+    }
+
+    /**
+     * Helper method - parse the invalid levels option: a list, or the
+     * INVAL_LEVELS item of a resource file.
+     */
+    private void parseInvalLevels(String value) throws IOException
+    {
+        if (value.startsWith("@"))
+        {
+            String resources = readFile(new File(value.substring(1)));
+            Matcher matcher = Pattern.compile(
+                "name=\"INVAL_LEVELS\"[^>]*>([^<]*)<").matcher(resources);
+            if (!matcher.find())
+                throw new IllegalArgumentException("No INVAL_LEVELS in " +
+                    value.substring(1));
+            value = matcher.group(1);
+        }
+        String[] levels = value.split(",");
+        for (int i = 0; i < levels.length; i++)
+        {
+            if (levels[i].trim().length() > 0)
+                m_invalLevels.add(Integer.valueOf(
+                    parsePositive(levels[i].trim())));
+        }
+    }
+
+    /**
+     * Helper method - create a solver of the chosen kind.
+     */
+    private Solver createSolver()
+    {
+        Solver solver;
+        if (m_solver.equals("ida"))
+            solver = new IdaStarSolver();
+        else if (m_solver.equals("parallel"))
+            solver = new ParallelIdaStarSolver();
+        else if (m_solver.equals("bidirectional"))
+            solver = new BidirectionalSolver();
+        else if (m_solver.equals("bfs"))
+            solver = new ExternalBfsSolver();
+        else
+            throw new IllegalArgumentException("Unknown solver " + m_solver);
+        solver.setTimeBudget(m_timeBudget);
+        solver.setNodeBudget(m_nodeBudget);
+        solver.setTableMemory(m_tableMemory);
+        solver.setDeadlockPatterns(m_deadlockPatterns);
+        return solver;
+    }
+
+    /**
+     * Helper method - solve the levels, and write the report.
+     */
+    private void run() throws IOException, InterruptedException
+    {
+        int lastLevel = Math.min(m_lastLevel,
+            LevelFiles.countLevels(m_directory));
+        if (m_patternsFile != null)
+            m_deadlockPatterns = DeadlockPatterns.open(m_patternsFile);
+        ExecutorService executor = Executors.newFixedThreadPool(m_threads,
+            new SolverThreadFactory());
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        for (int level = m_firstLevel; level <= lastLevel; level++)
+        {
+            final int solvedLevel = level;
+            results.add(executor.submit(new Callable<long[]>()
+            {
+                public long[] call()
+                {
+                    return solve(solvedLevel);
+                }
+            }));
+        }
+
+        PrintWriter report = new PrintWriter(new OutputStreamWriter(
+            (m_output != null) ? new FileOutputStream(m_output) : System.out,
+            "UTF-8"));
+        List<Integer> solvedInval = new ArrayList<Integer>();
+        List<Integer> badLevels = new ArrayList<Integer>();
+        int solved = 0;
+        try
+        {
+            writeHeader(report);
+            for (int i = 0; i < results.size(); i++)
+            {
+                long[] row = getResult(results.get(i));
+                writeRow(report, row, i == 0);
+                int level = (int)row[0];
+                boolean inval = m_invalLevels.contains(Integer.valueOf(level));
+                if (row[1] == Solution.SOLVED)
+                {
+                    solved++;
+                    if (inval)
+                        solvedInval.add(Integer.valueOf(level));
+                }
+                else if (!inval &&
+                    (row[1] == UNREADABLE || row[1] == Solution.UNSOLVABLE))
+                {
+                    badLevels.add(Integer.valueOf(level));
+                }
+            }
+            writeFooter(report);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            if (m_output != null)
+                report.close();
+            else
+                report.flush();
+        }
+
+        System.err.println("Solved " + solved + " of " + results.size() +
+            " levels");
+        if (m_deadlockPatterns != null)
+        {
+            m_deadlockPatterns.save(m_patternsFile);
+            System.err.println("Learned " +
+                m_deadlockPatterns.getLearnedCount() + " deadlock patterns; " +
+                m_patternsFile + " has " +
+                m_deadlockPatterns.getPatternCount());
+        }
+        if (!m_invalLevels.isEmpty())
+        {
+            System.err.println("Listed as invalid, but solved: " +
+                solvedInval);
+            System.err.println("Not listed as invalid, but unreadable or " +
+                "unsolvable: " + badLevels);
+        }
+    }
+
+    /**
+     * Helper method - solve a level, on a worker thread.
+     *
+     * @return The level's report row, as numbers (see COLUMNS); the status
+     * is a solution status, UNREADABLE or NOT_FOUND.
+     */
+    private long[] solve(int level)
+    {
+        long[] row = new long[COLUMNS.length];
+        row[0] = level;
+        row[2] = m_invalLevels.contains(Integer.valueOf(level)) ? 1 : 0;
+        for (int i = 3; i < row.length; i++)
+            row[i] = -1;
+
+        Board board;
+        try
+        {
+            board = LevelFiles.read(m_directory, level);
+        }
+        catch (Exception e)
+        {
+            row[1] = UNREADABLE;
+            return row;
+        }
+        if (board.getPlayerPos() < 0)
+        {
+            row[1] = UNREADABLE;
+            return row;
+        }
+
+        if (m_threads == 1)
+            resetPeakHeap();
+        long start = System.currentTimeMillis();
+        Solver solver = createSolver();
+        Solution solution = solver.solve(board);
+        row[1] = solution.getStatus();
+        if (row[1] == Solution.UNSOLVABLE && solver.getMacroMoves())
+            row[1] = NOT_FOUND;
+        if (solution.isSolved())
+        {
+            row[3] = solution.getMoveCount();
+            row[4] = solution.getPushCount();
+        }
+        row[5] = solution.getNodes();
+        row[6] = System.currentTimeMillis() - start;
+        row[7] = getPeakHeap();
+        return row;
+    }
+
+    /**
+     * Helper method - get a level's result.
+     */
+    private static long[] getResult(Future<long[]> future)
+        throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("A solver thread failed",
+                e.getCause());
+        }
+    }
+
+    /**
+     * Helper method - write the start of the report.
+     */
+    private void writeHeader(PrintWriter report)
+    {
+        if (m_json)
+        {
+            report.print("[");
+            return;
+        }
+        for (int i = 0; i < COLUMNS.length; i++)
+            report.print((i > 0 ? "," : "") + COLUMNS[i]);
+        report.println();
+    }
+
+    /**
+     * Helper method - write a level's row of the report.
+     */
+    private void writeRow(PrintWriter report, long[] row, boolean first)
+    {
+        StringBuffer line = new StringBuffer();
+        if (m_json)
+            line.append(first ? "\n  {" : ",\n  {");
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if (i > 0)
+                line.append(m_json ? ", " : ",");
+            if (m_json)
+                line.append('"').append(COLUMNS[i]).append("\": ");
+            if (i == 1)
+                line.append(m_json ? "\"" + getStatusName(row[i]) + "\"" :
+                    getStatusName(row[i]));
+            else if (i == 2)
+                line.append(row[i] != 0);
+            else if (row[i] < 0)
+                line.append(m_json ? "null" : "");
+            else
+                line.append(row[i]);
+        }
+        if (m_json)
+        {
+            line.append("}");
+            report.print(line);
+        }
+        else
+        {
+            report.println(line);
+        }
+        report.flush();
+    }
+
+    /**
+     * Helper method - write the end of the report.
+     */
+    private void writeFooter(PrintWriter report)
+    {
+        if (m_json)
+            report.println("\n]");
+    }
+
+    /**
+     * Helper method - the report name of a status.
+     */
+    private static String getStatusName(long status)
+    {
+        switch ((int)status)
+        {
+          case Solution.SOLVED:
+            return "solved";
+          case Solution.UNSOLVABLE:
+            return "unsolvable";
+          case Solution.BUDGET_EXCEEDED:
+            return "budget";
+          case Solution.CANCELLED:
+            return "cancelled";
+          case Solution.FAILED:
+            return "failed";
+          case NOT_FOUND:
+            return "notfound";
+          default:
+            return "unreadable";
+        }
+    }
+
+    /**
+     * Helper method - reset the peak use of the heap memory pools.
+     */
+    private static void resetPeakHeap()
+    {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (int i = 0; i < pools.size(); i++)
+        {
+            if (pools.get(i).getType() == MemoryType.HEAP)
+                pools.get(i).resetPeakUsage();
+        }
+    }
+
+    /**
+     * Helper method - the peak use of the heap memory pools, in bytes.
+     */
+    private static long getPeakHeap()
+    {
+        long peak = 0;
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (int i = 0; i < pools.size(); i++)
+        {
+            if (pools.get(i).getType() == MemoryType.HEAP)
+                peak += pools.get(i).getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Helper method - read a text file.
+     */
+    private static String readFile(File file) throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) > 0)
+                contents.write(buffer, 0, count);
+            return contents.toString("UTF-8");
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.tools;
+
+import com.dio.sokoban.Board;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the level files of a directory - level-1.txt, level-2.txt and so on
+ * - the way the application reads its level assets.
+ */
+final class LevelFiles
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The level file name prefix and suffix.
+     */
+    private final static String PREFIX = "level-";
+    private final static String SUFFIX = ".txt";
+
+    //
+    // Operations.
+    //
+
+    private LevelFiles()
+    {
+    }
+
+    /**
+     * Count the levels of a directory: the levels from 1 up to the first
+     * missing file.
+     */
+    static int countLevels(File directory)
+    {
+        int count = 0;
+        while (getFile(directory, count + 1).isFile())
+            count++;
+        return count;
+    }
+
+    /**
+     * Read a level.
+     *
+     * @param directory The directory.
+     * @param level The level.
+     * @return The board, in the level's start position.
+     * @throws IOException if the level can't be read.
+     */
+    static Board read(File directory, int level) throws IOException
+    {
+        InputStream input = new FileInputStream(getFile(directory, level));
+        try
+        {
+            Board board = new Board();
+            board.read(input);
+            return board;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Helper method - the file of a level.
+     */
+    private static File getFile(File directory, int level)
+    {
+        return new File(directory, PREFIX + level + SUFFIX);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.tools;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.solver.BidirectionalSolver;
+import com.dio.sokoban.solver.DeadlockPatterns;
+import com.dio.sokoban.solver.IdaStarSolver;
+import com.dio.sokoban.solver.Solution;
+import com.dio.sokoban.solver.SolutionCache;
+import com.dio.sokoban.solver.SolutionVerifier;
+import com.dio.sokoban.solver.Solver;
+import com.dio.sokoban.solver.SolverThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves every level of a directory, and packs the solutions into the
+ * solution cache asset (see SolutionCache). Run by the packSolutions build
+ * task:
+ *
+ *   SolutionPacker [-patterns FILE] levels-directory output-file
+ *       [seconds-per-level]
+ *
+ * Each level is given to the IDA* solver first, and to the bidirectional
+ * solver if that fails, with the time budget split between them. Levels
+ * run in parallel, one per processor. A level no solver solves is left out
+ * of the cache. With -patterns, the solvers use the deadlock pattern
+ * database of the file, which is saved with the patterns learned when
+ * they're done.
+ *
+ * The solutions of an existing output file are kept, for the levels they
+ * still solve, and only the other levels are solved - so the cache can be
+ * grown over several runs, with larger budgets for the hard levels.
+ */
+public class SolutionPacker
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default time budget of a level, in seconds.
+     */
+    private final static int DEFAULT_SECONDS = 20;
+
+    /**
+     * The share of the heap each solving thread may use for its tables.
+     */
+    private final static int TABLE_MEMORY_SHARE = 4;
+
+    //
+    // Operations.
+    //
+
+    public static void main(String[] args) throws Exception
+    {
+        File patternsFile = null;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-patterns"))
+        {
+            patternsFile = new File(args[1]);
+            first = 2;
+        }
+        if (args.length - first < 2 || args.length - first > 3)
+        {
+            System.err.println("Usage: SolutionPacker [-patterns FILE] " +
+                "levels-directory output-file [seconds-per-level]");
+            System.exit(2);
+        }
+        final File directory = new File(args[first]);
+        File output = new File(args[first + 1]);
+        final long timeBudget = 1000L * ((args.length - first > 2) ?
+            Integer.parseInt(args[first + 2]) : DEFAULT_SECONDS);
+        final DeadlockPatterns deadlockPatterns = (patternsFile != null) ?
+            DeadlockPatterns.open(patternsFile) : null;
+
+        int levelCount = LevelFiles.countLevels(directory);
+        final String[] kept = readSolutions(output, directory, levelCount);
+        int threads = Runtime.getRuntime().availableProcessors();
+        final int tableMemory = (int)Math.min(Integer.MAX_VALUE,
+            Runtime.getRuntime().maxMemory() / TABLE_MEMORY_SHARE / threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new SolverThreadFactory());
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int level = 1; level <= levelCount; level++)
+        {
+            final int solvedLevel = level;
+            results.add(executor.submit(new Callable<String>()
+            {
+                public String call() throws IOException
+                {
+                    if (kept[solvedLevel - 1] != null)
+                        return kept[solvedLevel - 1];
+                    return solve(directory, solvedLevel, timeBudget,
+                        tableMemory, deadlockPatterns);
+                }
+            }));
+        }
+
+        String[] solutions = new String[levelCount];
+        int solved = 0;
+        try
+        {
+            for (int i = 0; i < levelCount; i++)
+            {
+                solutions[i] = getResult(results.get(i), i + 1);
+                if (solutions[i] != null)
+                    solved++;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        SolutionCache.write(output, solutions);
+        System.out.println("Solved " + solved + " of " + levelCount +
+            " levels; wrote " + output + " (" + output.length() + " bytes)");
+        if (deadlockPatterns != null)
+        {
+            deadlockPatterns.save(patternsFile);
+            System.out.println("Learned " + deadlockPatterns.getLearnedCount() +
+                " deadlock patterns; " + patternsFile + " has " +
+                deadlockPatterns.getPatternCount());
+        }
+    }
+
+    /**
+     * Helper method - read the solutions of an existing output file which
+     * still solve their levels. They're all read up front, since the file is
+     * written over later.
+     *
+     * @return The solutions, in LURD notation, or null for a level without
+     * one.
+     */
+    private static String[] readSolutions(File output, File directory,
+        int levelCount) throws IOException
+    {
+        String[] solutions = new String[levelCount];
+        if (!output.isFile())
+            return solutions;
+        SolutionCache cache = SolutionCache.open(output);
+        for (int level = 1; level <= levelCount; level++)
+        {
+            if (!cache.hasSolution(level))
+                continue;
+            Board board = LevelFiles.read(directory, level);
+            String lurd = cache.getLurd(level, board);
+            if (lurd != null && new SolutionVerifier().verify(board, lurd) ==
+                SolutionVerifier.SOLVED)
+                solutions[level - 1] = lurd;
+        }
+        return solutions;
+    }
+
+    /**
+     * Helper method - solve a level.
+     *
+     * @return The solution in LURD notation, or null.
+     */
+    private static String solve(File directory, int level, long timeBudget,
+        int tableMemory, DeadlockPatterns deadlockPatterns) throws IOException
+    {
+        Board board = LevelFiles.read(directory, level);
+        Solver[] solvers = { new IdaStarSolver(), new BidirectionalSolver() };
+        for (int i = 0; i < solvers.length; i++)
+        {
+            solvers[i].setNodeBudget(Long.MAX_VALUE);
+            solvers[i].setTimeBudget(timeBudget / solvers.length);
+            solvers[i].setTableMemory(tableMemory);
+            solvers[i].setDeadlockPatterns(deadlockPatterns);
+            Solution solution = solvers[i].solve(board);
+            if (solution.isSolved() &&
+                new SolutionVerifier().verify(board, solution.getLurd()) ==
+                    SolutionVerifier.SOLVED)
+                return solution.getLurd();
+        }
+        return null;
+    }
+
+    /**
+     * Helper method - get a level's result, and report it.
+     */
+    private static String getResult(Future<String> future, int level)
+        throws InterruptedException
+    {
+        String lurd;
+        try
+        {
+            lurd = future.get();
+        }
+        catch (ExecutionException e)
+        {
+            System.out.println("Level " + level + ": " + e.getCause());
+            return null;
+        }
+        System.out.println("Level " + level + ": " + ((lurd != null) ?
+            lurd.length() + " moves" : "not solved"));
+        return lurd;
+    }
+}
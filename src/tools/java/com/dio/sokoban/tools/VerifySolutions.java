@@ -0,0 +1,395 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.dio.sokoban.tools;
+
+import com.dio.sokoban.Board;
+import com.dio.sokoban.solver.SolutionVerifier;
+import com.dio.sokoban.solver.SolverThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks a batch of solutions, in parallel, and writes a report with a row
+ * per solution: whether it solves its level, and the index of its first
+ * illegal move. Runs on a plain JVM:
+ *
+ *   VerifySolutions [-threads N] [-output FILE] levels-directory
+ *       [solutions-file]
+ *
+ * The solutions are read from the file, or from standard input: a line per
+ * solution, with the level number and the moves in LURD notation, separated
+ * by white space. Empty lines, and lines starting with '#', are skipped.
+ *
+ * The report is CSV, in the order of the input: the line number, the level,
+ * the result - solved, not-solved (every move is legal, but the level isn't
+ * solved), illegal, or bad-line (a level which doesn't exist or can't be
+ * read, or a line which can't be parsed) - and the index of the first
+ * illegal move, counted from 0.
+ *
+ * Each level is read once, and shared by the worker threads. The lines are
+ * checked in chunks, each with its worker's verifier (see SolutionVerifier),
+ * so the moves are replayed without allocating anything.
+ */
+public class VerifySolutions
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of lines checked by a task.
+     */
+    private final static int CHUNK_SIZE = 4096;
+
+    /**
+     * The number of chunks queued per worker thread, so that reading stays
+     * ahead of the workers without holding the whole input.
+     */
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The result of a line which can't be checked, beside the verifier's
+     * results.
+     */
+    private final static int BAD_LINE = -3;
+
+    //
+    // Members.
+    //
+
+    private int m_threads = Runtime.getRuntime().availableProcessors();
+    private File m_output;
+    private File m_directory;
+    private File m_input;
+
+    /**
+     * The levels read so far, by number; null for a level not read yet.
+     * Written by the reading thread only, before the chunks which use them
+     * are submitted.
+     */
+    private Board[] m_levels;
+
+    /**
+     * The levels which can't be read.
+     */
+    private boolean[] m_badLevels;
+
+    /**
+     * The verifier of each worker thread.
+     */
+    private final ThreadLocal<SolutionVerifier> m_verifiers =
+        new ThreadLocal<SolutionVerifier>()
+        {
+            @Override
+            protected SolutionVerifier initialValue()
+            {
+                return new SolutionVerifier();
+            }
+        };
+
+    //
+    // Operations.
+    //
+
+    public static void main(String[] args) throws Exception
+    {
+        VerifySolutions verify = new VerifySolutions();
+        try
+        {
+            verify.parseArgs(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: VerifySolutions [-threads N] " +
+                "[-output FILE] levels-directory [solutions-file]");
+            System.exit(2);
+        }
+        verify.run();
+    }
+
+    /**
+     * Helper method - parse the command line.
+     *
+     * @throws IllegalArgumentException if it's wrong.
+     */
+    private void parseArgs(String[] args)
+    {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2)
+        {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value of " +
+                    args[i]);
+            String value = args[i + 1];
+            if (args[i].equals("-threads"))
+                m_threads = parsePositive(value);
+            else if (args[i].equals("-output"))
+                m_output = new File(value);
+            else
+                throw new IllegalArgumentException("Unknown option " +
+                    args[i]);
+        }
+        if (i == args.length || i < args.length - 2)
+            throw new IllegalArgumentException("Missing levels directory");
+        m_directory = new File(args[i]);
+        if (i + 1 < args.length)
+            m_input = new File(args[i + 1]);
+    }
+
+    /**
+     * Helper method - parse a positive number option.
+     */
+    private static int parsePositive(String value)
+    {
+        try
+        {
+            int number = Integer.parseInt(value);
+            if (number > 0)
+                return number;
+        }
+        catch (NumberFormatException e)
+        {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Bad number " + value);
+    }
+
+    /**
+     * Helper method - check the solutions, and write the report.
+     */
+    private void run() throws IOException, InterruptedException
+    {
+        int levelCount = LevelFiles.countLevels(m_directory);
+        m_levels = new Board[levelCount + 1];
+        m_badLevels = new boolean[levelCount + 1];
+
+        BufferedReader input = new BufferedReader(new InputStreamReader(
+            (m_input != null) ? new FileInputStream(m_input) : System.in,
+            "UTF-8"));
+        PrintWriter report = new PrintWriter(new OutputStreamWriter(
+            (m_output != null) ? new FileOutputStream(m_output) : System.out,
+            "UTF-8"));
+        ExecutorService executor = Executors.newFixedThreadPool(m_threads,
+            new SolverThreadFactory());
+        LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+        int[] counts = new int[4];
+        long start = System.currentTimeMillis();
+        try
+        {
+            report.println("line,level,result,firstIllegal");
+            int lineNumber = 0;
+            Chunk chunk = new Chunk();
+            String line;
+            while ((line = input.readLine()) != null)
+            {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+                add(chunk, lineNumber, line);
+                if (chunk.m_count < CHUNK_SIZE)
+                    continue;
+                pending.add(submit(executor, chunk));
+                chunk = new Chunk();
+                if (pending.size() >= m_threads * CHUNKS_PER_THREAD)
+                    write(report, getResult(pending.removeFirst()), counts);
+            }
+            if (chunk.m_count > 0)
+                pending.add(submit(executor, chunk));
+            while (!pending.isEmpty())
+                write(report, getResult(pending.removeFirst()), counts);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            if (m_input != null)
+                input.close();
+            if (m_output != null)
+                report.close();
+            else
+                report.flush();
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        int total = counts[0] + counts[1] + counts[2] + counts[3];
+        System.err.println("Checked " + total + " solutions in " + millis +
+            " ms (" + (total * 60000L / millis) + " per minute): " +
+            counts[0] + " solved, " + counts[1] + " not solved, " +
+            counts[2] + " illegal, " + counts[3] + " bad lines");
+    }
+
+    /**
+     * Helper method - parse a line, and add it to a chunk.
+     */
+    private void add(Chunk chunk, int lineNumber, String line)
+    {
+        int index = chunk.m_count++;
+        chunk.m_lines[index] = lineNumber;
+        chunk.m_levels[index] = -1;
+        chunk.m_boards[index] = null;
+        chunk.m_moves[index] = "";
+
+        int space = 0;
+        while (space < line.length() &&
+            !Character.isWhitespace(line.charAt(space)))
+            space++;
+        int level;
+        try
+        {
+            level = Integer.parseInt(line.substring(0, space));
+        }
+        catch (NumberFormatException e)
+        {
+            return;
+        }
+        chunk.m_levels[index] = level;
+        chunk.m_boards[index] = getLevel(level);
+        chunk.m_moves[index] = line.substring(space).trim();
+    }
+
+    /**
+     * Helper method - get a level's start board, reading it the first time.
+     *
+     * @return The board, or null if the level doesn't exist or can't be read.
+     */
+    private Board getLevel(int level)
+    {
+        if (level <= 0 || level >= m_levels.length || m_badLevels[level])
+            return null;
+        if (m_levels[level] == null)
+        {
+            try
+            {
+                Board board = LevelFiles.read(m_directory, level);
+                if (board.getPlayerPos() >= 0)
+                    m_levels[level] = board;
+                else
+                    m_badLevels[level] = true;
+            }
+            catch (IOException e)
+            {
+                m_badLevels[level] = true;
+            }
+        }
+        return m_levels[level];
+    }
+
+    /**
+     * Helper method - check a chunk on a worker thread.
+     */
+    private Future<Chunk> submit(ExecutorService executor, final Chunk chunk)
+    {
+        return executor.submit(new Callable<Chunk>()
+        {
+            public Chunk call()
+            {
+                SolutionVerifier verifier = m_verifiers.get();
+                for (int i = 0; i < chunk.m_count; i++)
+                {
+                    chunk.m_results[i] = (chunk.m_boards[i] != null) ?
+                        verifier.verify(chunk.m_boards[i], chunk.m_moves[i]) :
+                        BAD_LINE;
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /**
+     * Helper method - get a chunk's results.
+     */
+    private static Chunk getResult(Future<Chunk> future)
+        throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("A verifier thread failed",
+                e.getCause());
+        }
+    }
+
+    /**
+     * Helper method - write a chunk's rows of the report, and count its
+     * results: solved, not solved, illegal and bad lines.
+     */
+    private static void write(PrintWriter report, Chunk chunk, int[] counts)
+    {
+        StringBuffer rows = new StringBuffer();
+        for (int i = 0; i < chunk.m_count; i++)
+        {
+            int result = chunk.m_results[i];
+            rows.append(chunk.m_lines[i]).append(',');
+            if (chunk.m_levels[i] >= 0)
+                rows.append(chunk.m_levels[i]);
+            switch (result)
+            {
+              case SolutionVerifier.SOLVED:
+                rows.append(",solved,\n");
+                counts[0]++;
+                break;
+              case SolutionVerifier.NOT_SOLVED:
+                rows.append(",not-solved,\n");
+                counts[1]++;
+                break;
+              case BAD_LINE:
+                rows.append(",bad-line,\n");
+                counts[3]++;
+                break;
+              default:
+                rows.append(",illegal,").append(result).append('\n');
+                counts[2]++;
+                break;
+            }
+        }
+        report.print(rows);
+    }
+
+    /**
+     * A chunk of input lines, and their results.
+     */
+    private static class Chunk
+    {
+        int m_count;
+        final int[] m_lines = new int[CHUNK_SIZE];
+        final int[] m_levels = new int[CHUNK_SIZE];
+        final Board[] m_boards = new Board[CHUNK_SIZE];
+        final String[] m_moves = new String[CHUNK_SIZE];
+        final int[] m_results = new int[CHUNK_SIZE];
+    }
+}